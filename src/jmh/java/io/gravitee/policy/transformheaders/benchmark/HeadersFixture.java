@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.benchmark;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.Request;
+import io.gravitee.gateway.api.el.EvaluableRequest;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.policy.transformheaders.configuration.HttpHeader;
+import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configurations and headers shared by the benchmarks.
+ *
+ * <p>
+ * For <code>n</code> headers, the incoming headers are <code>x-header-0</code> to <code>x-header-(n-1)</code>. The
+ * configuration sets one header per incoming header, appends one header, removes every tenth incoming header and, when
+ * whitelisting, keeps the first half of the incoming headers plus the ones added by the policy.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+public final class HeadersFixture {
+
+    public enum ValueType {
+        LITERAL,
+        EXPRESSION,
+    }
+
+    private final HttpHeaders incomingHeaders = HttpHeaders.create();
+
+    private final TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+
+    private final TemplateEngine templateEngine = TemplateEngine.templateEngine();
+
+    private HttpHeaders currentHeaders;
+
+    public HeadersFixture(final int headerCount, final ValueType valueType, final boolean whitelist) {
+        final List<HttpHeader> addHeaders = new ArrayList<>(headerCount);
+        final List<String> removeHeaders = new ArrayList<>();
+        final List<String> whitelistHeaders = new ArrayList<>();
+
+        for (int i = 0; i < headerCount; i++) {
+            incomingHeaders.set("x-header-" + i, "value-" + i);
+            addHeaders.add(
+                new HttpHeader(
+                    "X-Added-" + i,
+                    valueType == ValueType.LITERAL ? "value-" + i : "{#request.headers['x-header-" + i + "'][0]}"
+                )
+            );
+            whitelistHeaders.add("X-Added-" + i);
+            if (i % 10 == 0) {
+                removeHeaders.add("X-Header-" + i);
+            }
+            if (i < headerCount / 2) {
+                whitelistHeaders.add("X-Header-" + i);
+            }
+        }
+        whitelistHeaders.add("X-Appended");
+
+        configuration.setAddHeaders(addHeaders);
+        configuration.setAppendHeaders(
+            List.of(new HttpHeader("X-Appended", valueType == ValueType.LITERAL ? "appended" : "{#request.headers['x-header-0'][0]}"))
+        );
+        configuration.setRemoveHeaders(removeHeaders);
+        configuration.setWhitelistHeaders(whitelist ? whitelistHeaders : null);
+
+        final Request request = Stubs.stub(Request.class, Map.of("headers", args -> currentHeaders));
+        templateEngine.getTemplateContext().setVariable("request", new EvaluableRequest(request));
+    }
+
+    public TransformHeadersPolicyConfiguration configuration() {
+        return configuration;
+    }
+
+    public TemplateEngine templateEngine() {
+        return templateEngine;
+    }
+
+    /**
+     * @return a fresh copy of the incoming headers, also exposed to expressions as <code>#request.headers</code>.
+     */
+    public HttpHeaders newHeaders() {
+        currentHeaders = HttpHeaders.create(incomingHeaders);
+        return currentHeaders;
+    }
+}
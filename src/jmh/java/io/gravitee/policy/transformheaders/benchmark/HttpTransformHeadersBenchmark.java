@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.benchmark;
+
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainRequest;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainResponse;
+import io.gravitee.policy.transformheaders.TransformHeadersPolicy;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of {@link TransformHeadersPolicy#onRequest(HttpPlainExecutionContext)} and
+ * {@link TransformHeadersPolicy#onResponse(HttpPlainExecutionContext)}.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpTransformHeadersBenchmark {
+
+    @Param({ "5", "50", "200" })
+    private int headerCount;
+
+    @Param({ "LITERAL", "EXPRESSION" })
+    private HeadersFixture.ValueType valueType;
+
+    @Param({ "false", "true" })
+    private boolean whitelist;
+
+    private HeadersFixture fixture;
+
+    private TransformHeadersPolicy policy;
+
+    private HttpPlainExecutionContext ctx;
+
+    private HttpHeaders headers;
+
+    @Setup
+    public void setup() {
+        fixture = new HeadersFixture(headerCount, valueType, whitelist);
+        policy = new TransformHeadersPolicy(fixture.configuration());
+
+        final HttpPlainRequest request = Stubs.stub(HttpPlainRequest.class, Map.of("headers", args -> headers));
+        final HttpPlainResponse response = Stubs.stub(HttpPlainResponse.class, Map.of("headers", args -> headers));
+        ctx = Stubs.stub(
+            HttpPlainExecutionContext.class,
+            Map.of("request", args -> request, "response", args -> response, "getTemplateEngine", args -> fixture.templateEngine())
+        );
+    }
+
+    @Benchmark
+    public HttpHeaders onRequest(final Blackhole blackhole) {
+        headers = fixture.newHeaders();
+        policy.onRequest(ctx).subscribe(() -> blackhole.consume(headers), blackhole::consume);
+        return headers;
+    }
+
+    @Benchmark
+    public HttpHeaders onResponse(final Blackhole blackhole) {
+        headers = fixture.newHeaders();
+        policy.onResponse(ctx).subscribe(() -> blackhole.consume(headers), blackhole::consume);
+        return headers;
+    }
+}
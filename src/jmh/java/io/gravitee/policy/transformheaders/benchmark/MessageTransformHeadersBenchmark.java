@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.benchmark;
+
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.gateway.reactive.api.context.http.HttpMessageExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpMessageRequest;
+import io.gravitee.gateway.reactive.api.context.kafka.KafkaMessageExecutionContext;
+import io.gravitee.gateway.reactive.api.context.kafka.KafkaMessageRequest;
+import io.gravitee.gateway.reactive.api.message.DefaultMessage;
+import io.gravitee.gateway.reactive.api.message.Message;
+import io.gravitee.gateway.reactive.api.message.kafka.KafkaMessage;
+import io.gravitee.policy.transformheaders.TransformHeadersPolicy;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.FlowableTransformer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-message throughput of {@link TransformHeadersPolicy#onMessageRequest(HttpMessageExecutionContext)} and
+ * {@link TransformHeadersPolicy#onMessageRequest(KafkaMessageExecutionContext)}: the message transformation registered by
+ * the policy is captured once, then applied to a flow of one new message on every operation.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageTransformHeadersBenchmark {
+
+    @Param({ "5", "50", "200" })
+    private int headerCount;
+
+    @Param({ "LITERAL", "EXPRESSION" })
+    private HeadersFixture.ValueType valueType;
+
+    @Param({ "false", "true" })
+    private boolean whitelist;
+
+    private HeadersFixture fixture;
+
+    private Map<String, Buffer> recordHeaders;
+
+    private Map<String, Buffer> currentRecordHeaders;
+
+    private KafkaMessage kafkaMessage;
+
+    private FlowableTransformer<Message, Message> onHttpMessages;
+
+    private FlowableTransformer<KafkaMessage, KafkaMessage> onKafkaMessages;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        fixture = new HeadersFixture(headerCount, valueType, whitelist);
+        final TransformHeadersPolicy policy = new TransformHeadersPolicy(fixture.configuration());
+
+        recordHeaders = new HashMap<>();
+        fixture.newHeaders().forEach(header -> recordHeaders.put(header.getKey(), Buffer.buffer(header.getValue())));
+        kafkaMessage = Stubs.stub(
+            KafkaMessage.class,
+            Map.of(
+                "recordHeaders",
+                args -> currentRecordHeaders,
+                "putRecordHeader",
+                args -> {
+                    currentRecordHeaders.put((String) args[0], (Buffer) args[1]);
+                    return kafkaMessage;
+                },
+                "removeRecordHeader",
+                args -> {
+                    currentRecordHeaders.remove((String) args[0]);
+                    return kafkaMessage;
+                }
+            )
+        );
+
+        final HttpMessageRequest httpRequest = Stubs.stub(
+            HttpMessageRequest.class,
+            Map.of("onMessages", args -> {
+                onHttpMessages = (FlowableTransformer<Message, Message>) args[0];
+                return Completable.complete();
+            })
+        );
+        final HttpMessageExecutionContext httpCtx = Stubs.stub(
+            HttpMessageExecutionContext.class,
+            Map.of("request", args -> httpRequest, "getTemplateEngine", args -> fixture.templateEngine())
+        );
+        policy.onMessageRequest(httpCtx).blockingAwait();
+
+        final KafkaMessageRequest kafkaRequest = Stubs.stub(
+            KafkaMessageRequest.class,
+            Map.of("onMessages", args -> {
+                onKafkaMessages = (FlowableTransformer<KafkaMessage, KafkaMessage>) args[0];
+                return Completable.complete();
+            })
+        );
+        final KafkaMessageExecutionContext kafkaCtx = Stubs.stub(
+            KafkaMessageExecutionContext.class,
+            Map.of("request", args -> kafkaRequest, "getTemplateEngine", args -> fixture.templateEngine())
+        );
+        policy.onMessageRequest(kafkaCtx).blockingAwait();
+    }
+
+    @Benchmark
+    public void onHttpMessage(final Blackhole blackhole) {
+        final HttpHeaders headers = fixture.newHeaders();
+        Flowable.just((Message) DefaultMessage.builder().headers(headers).build())
+            .compose(onHttpMessages)
+            .subscribe(blackhole::consume, blackhole::consume);
+    }
+
+    @Benchmark
+    public void onKafkaMessage(final Blackhole blackhole) {
+        currentRecordHeaders = new HashMap<>(recordHeaders);
+        Flowable.just(kafkaMessage).compose(onKafkaMessages).subscribe(blackhole::consume, blackhole::consume);
+    }
+}
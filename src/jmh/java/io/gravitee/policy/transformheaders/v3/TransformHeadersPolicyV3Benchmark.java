@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.v3;
+
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.policy.transformheaders.benchmark.HeadersFixture;
+import io.gravitee.policy.transformheaders.benchmark.Stubs;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the V3 {@link TransformHeadersPolicyV3#transform(HttpHeaders, ExecutionContext)} and of the header removal
+ * on its own.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformHeadersPolicyV3Benchmark {
+
+    @Param({ "5", "50", "200" })
+    private int headerCount;
+
+    @Param({ "LITERAL", "EXPRESSION" })
+    private HeadersFixture.ValueType valueType;
+
+    @Param({ "false", "true" })
+    private boolean whitelist;
+
+    private HeadersFixture fixture;
+
+    private TransformHeadersPolicyV3 policy;
+
+    private ExecutionContext executionContext;
+
+    @Setup
+    public void setup() {
+        fixture = new HeadersFixture(headerCount, valueType, whitelist);
+        policy = new TransformHeadersPolicyV3(fixture.configuration());
+        executionContext = Stubs.stub(ExecutionContext.class, Map.of("getTemplateEngine", args -> fixture.templateEngine()));
+    }
+
+    @Benchmark
+    public HttpHeaders transform() {
+        final HttpHeaders headers = fixture.newHeaders();
+        policy.transform(headers, executionContext);
+        return headers;
+    }
+
+    @Benchmark
+    public HttpHeaders removeHeaders() {
+        final HttpHeaders headers = fixture.newHeaders();
+        policy.removeHeaders(headers);
+        return headers;
+    }
+}
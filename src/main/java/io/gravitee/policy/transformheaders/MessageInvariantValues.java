@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders;
+
+import io.gravitee.gateway.reactive.api.context.base.BaseExecutionContext;
+import io.gravitee.policy.transformheaders.plan.HeaderRule;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.vertx.core.Vertx;
+import java.util.List;
+
+/**
+ * Values of the rules not reading the message, evaluated once per message flow with the template engine of the
+ * connection and then reused for every message of the flow.
+ *
+ * <p>
+ * Messages of a flow are transformed one after the other, so values are not guarded against concurrent evaluations. A
+ * subject keeps the value, or the error, once the evaluation has terminated, and replays it to every message.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+final class MessageInvariantValues {
+
+    private final BaseExecutionContext ctx;
+
+    private final MaybeSubject<String>[] values;
+
+    /**
+     * Used to evaluate the offloaded values, <code>null</code> when not available.
+     */
+    private final Vertx vertx;
+
+    @SuppressWarnings("unchecked")
+    private MessageInvariantValues(final BaseExecutionContext ctx, final int size, final Vertx vertx) {
+        this.ctx = ctx;
+        this.values = new MaybeSubject[size];
+        this.vertx = vertx;
+    }
+
+    /**
+     * @return the values of the given rules for a message flow, <code>null</code> when all of them are literals or read the
+     * message.
+     */
+    static MessageInvariantValues of(final BaseExecutionContext ctx, final List<HeaderRule> rules, final Vertx vertx) {
+        for (HeaderRule rule : rules) {
+            if (rule.isMessageInvariant()) {
+                return new MessageInvariantValues(ctx, rules.size(), vertx);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the value of the rule at the given index has already been evaluated for the flow.
+     */
+    boolean isEvaluated(final int index) {
+        return values[index] != null;
+    }
+
+    /**
+     * @return the value of the rule at the given index, evaluated on first use.
+     */
+    MaybeSubject<String> get(final int index, final HeaderRule rule) {
+        MaybeSubject<String> value = values[index];
+        if (value == null) {
+            value = rule.evaluate(ctx.getTemplateEngine(), null, rule.isOffloaded() ? vertx : null);
+            values[index] = value;
+        }
+        return value;
+    }
+}
@@ -19,33 +19,63 @@ import io.gravitee.el.TemplateEngine;
 import io.gravitee.gateway.api.buffer.Buffer;
 import io.gravitee.gateway.api.http.HttpHeaders;
 import io.gravitee.gateway.reactive.api.ExecutionFailure;
+import io.gravitee.gateway.reactive.api.context.base.BaseExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpBaseExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpBaseRequest;
+import io.gravitee.gateway.reactive.api.context.http.HttpBaseResponse;
 import io.gravitee.gateway.reactive.api.context.http.HttpMessageExecutionContext;
 import io.gravitee.gateway.reactive.api.context.http.HttpPlainExecutionContext;
-import io.gravitee.gateway.reactive.api.context.kafka.KafkaExecutionContext;
 import io.gravitee.gateway.reactive.api.context.kafka.KafkaMessageExecutionContext;
 import io.gravitee.gateway.reactive.api.message.Message;
 import io.gravitee.gateway.reactive.api.message.kafka.KafkaMessage;
 import io.gravitee.gateway.reactive.api.policy.http.HttpPolicy;
 import io.gravitee.gateway.reactive.api.policy.kafka.KafkaPolicy;
-import io.gravitee.policy.transformheaders.configuration.HttpHeader;
+import io.gravitee.policy.transformheaders.TransformationMetrics.Phase;
 import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import io.gravitee.policy.transformheaders.plan.HeaderConditionContext;
+import io.gravitee.policy.transformheaders.plan.HeaderExpression;
+import io.gravitee.policy.transformheaders.plan.HeaderRule;
+import io.gravitee.policy.transformheaders.plan.HeaderTransformationPlan;
+import io.gravitee.policy.transformheaders.plan.HeaderTransformationPlans;
+import io.gravitee.policy.transformheaders.v3.EvaluationFailures;
 import io.gravitee.policy.transformheaders.v3.TransformHeadersPolicyV3;
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.Maybe;
-import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.function.BiFunction;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.vertx.core.Vertx;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.common.protocol.Errors;
 
 /**
  * @author Guillaume Lamirand (guillaume.lamirand at graviteesource.com)
  * @author GraviteeSource Team
  */
+@Slf4j
 public class TransformHeadersPolicy extends TransformHeadersPolicyV3 implements HttpPolicy, KafkaPolicy {
 
     private static final String TRANSFORM_HEADERS_FAILURE = "TRANSFORM_HEADERS_FAILURE";
 
+    /**
+     * Returned when the whole transformation has been applied synchronously, so callers can skip building a reactive chain.
+     */
+    private static final Completable COMPLETED = Completable.complete();
+
+    /**
+     * Value of a rule whose condition does not hold, when the rules are evaluated concurrently.
+     */
+    private static final MaybeSubject<String> SKIPPED = skipped();
+
+    /**
+     * Separates the values appended to a record header, record headers being single-valued.
+     */
+    private static final HeaderExpression APPEND_SEPARATOR = HeaderExpression.compile(",");
+
     public TransformHeadersPolicy(final TransformHeadersPolicyConfiguration configuration) {
         super(configuration);
     }
@@ -57,16 +87,53 @@ public class TransformHeadersPolicy extends TransformHeadersPolicyV3 implements
 
     @Override
     public Completable onRequest(HttpPlainExecutionContext ctx) {
-        return Completable.defer(() -> transform(ctx, ctx.request().headers()));
+        final HeaderTransformationPlan requestPlan = plans(ctx).getRequestPlan();
+        if (requestPlan.isEmpty()) {
+            return COMPLETED;
+        }
+        return transform(requestPlan, ctx, ctx.request().headers(), Phase.REQUEST);
     }
 
     @Override
     public Completable onResponse(HttpPlainExecutionContext ctx) {
-        return Completable.defer(() -> transform(ctx, ctx.response().headers()));
+        final HeaderTransformationPlan responsePlan = plans(ctx).getResponsePlan();
+        if (responsePlan.isEmpty()) {
+            return COMPLETED;
+        }
+        return transform(responsePlan, ctx, ctx.response().headers(), Phase.RESPONSE);
     }
 
-    private Completable transform(final HttpPlainExecutionContext ctx, final HttpHeaders httpHeaders) {
-        return transformHeaders(ctx.getTemplateEngine(), httpHeaders).onErrorResumeNext(throwable ->
+    private Completable transform(
+        final HeaderTransformationPlan plan,
+        final HttpPlainExecutionContext ctx,
+        final HttpHeaders httpHeaders,
+        final Phase phase
+    ) {
+        vertx(plan, ctx);
+        final TransformationMetrics metrics = plan.isReportMetrics() ? new TransformationMetrics(phase) : null;
+        final long start = metrics == null ? 0 : System.nanoTime();
+        Completable transformation = transformHeaders(
+            plan,
+            ctx.getTemplateEngine(),
+            httpHeaders,
+            null,
+            null,
+            plan.isCapturingContext() ? conditionContext(ctx, null) : null,
+            metrics
+        );
+        if (metrics != null) {
+            metrics.transformed(System.nanoTime() - start);
+            if (transformation == COMPLETED) {
+                metrics.report(ctx.metrics());
+            } else {
+                transformation = transformation.doOnError(throwable -> metrics.failed()).doOnTerminate(() -> metrics.report(ctx.metrics()));
+            }
+        }
+        if (transformation == COMPLETED) {
+            return transformation;
+        }
+
+        return transformation.onErrorResumeNext(throwable ->
             ctx.interruptWith(
                 new ExecutionFailure(500).key(TRANSFORM_HEADERS_FAILURE).message("Unable to apply headers transformation").cause(throwable)
             )
@@ -75,88 +142,771 @@ public class TransformHeadersPolicy extends TransformHeadersPolicyV3 implements
 
     @Override
     public Completable onMessageRequest(HttpMessageExecutionContext ctx) {
-        return ctx.request().onMessage(message -> transformMessageHeaders(ctx, message));
+        final HeaderTransformationPlan messageRequestPlan = plans(ctx).getMessageRequestPlan();
+        if (messageRequestPlan.isEmpty()) {
+            return COMPLETED;
+        }
+        return ctx.request().onMessages(messages -> transformMessages(messageRequestPlan, ctx, messages, Phase.MESSAGE_REQUEST));
     }
 
     @Override
     public Completable onMessageResponse(HttpMessageExecutionContext ctx) {
-        return ctx.response().onMessage(message -> transformMessageHeaders(ctx, message));
-    }
-
-    private Maybe<Message> transformMessageHeaders(final HttpMessageExecutionContext ctx, final Message message) {
-        return transformHeaders(ctx.getTemplateEngine(message), message.headers())
-            .andThen(Maybe.just(message))
-            .onErrorResumeNext(throwable ->
-                ctx.interruptMessageWith(
-                    new ExecutionFailure(500)
-                        .key(TRANSFORM_HEADERS_FAILURE)
-                        .message("Unable to apply headers transformation on message")
-                        .cause(throwable)
+        final HeaderTransformationPlan messageResponsePlan = plans(ctx).getMessageResponsePlan();
+        if (messageResponsePlan.isEmpty()) {
+            return COMPLETED;
+        }
+        return ctx.response().onMessages(messages -> transformMessages(messageResponsePlan, ctx, messages, Phase.MESSAGE_RESPONSE));
+    }
+
+    /**
+     * Transforms the headers of each message in place and hands the same message back, mapped as is when all the values
+     * are literals and as a scalar when it has been transformed synchronously otherwise. A message whose transformation
+     * fails interrupts the flow, whether all the values are literals or not. When metrics are reported, they are
+     * accumulated over the whole flow and reported once it terminates.
+     */
+    private Flowable<Message> transformMessages(
+        final HeaderTransformationPlan plan,
+        final HttpMessageExecutionContext ctx,
+        final Flowable<Message> messages,
+        final Phase phase
+    ) {
+        final TransformationMetrics metrics = plan.isReportMetrics() ? new TransformationMetrics(phase) : null;
+        final Flowable<Message> transformed = plan.isSynchronous()
+            ? messages
+                .map(message -> {
+                    final long start = metrics == null ? 0 : System.nanoTime();
+                    final Completable transformation = transformHeaders(plan, null, message.headers(), null, null, null, metrics);
+                    if (metrics != null) {
+                        metrics.transformed(System.nanoTime() - start);
+                    }
+                    if (transformation != COMPLETED) {
+                        throw new FailedTransformation(transformation);
+                    }
+                    return message;
+                })
+                .onErrorResumeNext(throwable ->
+                    throwable instanceof FailedTransformation
+                        ? interruptOnError(ctx, ((FailedTransformation) throwable).transformation.toMaybe(), metrics).toFlowable()
+                        : Flowable.error(throwable)
                 )
+            : transformMessagesAsync(plan, ctx, messages, metrics);
+
+        return metrics == null ? transformed : transformed.doFinally(() -> metrics.report(ctx.metrics()));
+    }
+
+    private Flowable<Message> transformMessagesAsync(
+        final HeaderTransformationPlan plan,
+        final HttpMessageExecutionContext ctx,
+        final Flowable<Message> messages,
+        final TransformationMetrics metrics
+    ) {
+        final MessageInvariantValues addValues = MessageInvariantValues.of(ctx, plan.getAddHeaders(), vertx(plan, ctx));
+        final MessageInvariantValues appendValues = MessageInvariantValues.of(ctx, plan.getAppendHeaders(), vertx(plan, ctx));
+        return messages.concatMap(message -> {
+            final long start = metrics == null ? 0 : System.nanoTime();
+            final Completable transformation = transformHeaders(
+                plan,
+                plan.isMessageDependent() ? ctx.getTemplateEngine(message) : null,
+                message.headers(),
+                addValues,
+                appendValues,
+                plan.isCapturingContext() ? conditionContext(ctx, message.headers()) : null,
+                metrics
             );
+            if (metrics != null) {
+                metrics.transformed(System.nanoTime() - start);
+            }
+            return transformation == COMPLETED ? Flowable.just(message) : transformedMessage(ctx, message, transformation, metrics);
+        });
     }
 
-    private Completable transformHeaders(final TemplateEngine templateEngine, final HttpHeaders httpHeaders) {
-        return addHeaders(templateEngine, httpHeaders)
-            .andThen(appendHeaders(templateEngine, httpHeaders))
-            .andThen(Completable.fromRunnable(() -> removeHeaders(httpHeaders)));
+    /**
+     * @return the message once transformed, or the interruption of the flow when its transformation fails.
+     */
+    private static Flowable<Message> transformedMessage(
+        final HttpMessageExecutionContext ctx,
+        final Message message,
+        final Completable transformation,
+        final TransformationMetrics metrics
+    ) {
+        return interruptOnError(ctx, transformation.andThen(Maybe.just(message)), metrics).toFlowable();
     }
 
-    private Completable addHeaders(final TemplateEngine templateEngine, final HttpHeaders httpHeaders) {
-        return updateHeaders(configuration::getAddHeaders, templateEngine, (key, value) ->
-            Optional.ofNullable(httpHeaders)
-                .map(h -> h.set(key, value))
-                .orElse(null)
-        );
+    /**
+     * @return the given message, or the interruption of the flow when it fails.
+     */
+    private static Maybe<Message> interruptOnError(
+        final HttpMessageExecutionContext ctx,
+        final Maybe<Message> message,
+        final TransformationMetrics metrics
+    ) {
+        return message.onErrorResumeNext(throwable -> {
+            if (metrics != null) {
+                metrics.failed();
+            }
+            return ctx.interruptMessageWith(
+                new ExecutionFailure(500)
+                    .key(TRANSFORM_HEADERS_FAILURE)
+                    .message("Unable to apply headers transformation on message")
+                    .cause(throwable)
+            );
+        });
+    }
+
+    private Completable transformHeaders(
+        final HeaderTransformationPlan plan,
+        final TemplateEngine templateEngine,
+        final HttpHeaders httpHeaders,
+        final MessageInvariantValues addValues,
+        final MessageInvariantValues appendValues,
+        final HeaderConditionContext conditionContext,
+        final TransformationMetrics metrics
+    ) {
+        if (httpHeaders == null) {
+            return COMPLETED;
+        }
+
+        try {
+            copyHeaders(plan, httpHeaders);
+            return andThen(
+                updateHeaders(
+                    plan,
+                    plan.getAddHeaders(),
+                    addValues,
+                    templateEngine,
+                    conditionContext,
+                    metrics,
+                    (rule, value) -> httpHeaders.set(rule.getName(), value),
+                    null
+                ),
+                () ->
+                    andThen(
+                        updateHeaders(
+                            plan,
+                            plan.getAppendHeaders(),
+                            appendValues,
+                            templateEngine,
+                            conditionContext,
+                            metrics,
+                            (rule, value) -> httpHeaders.add(rule.getName(), value),
+                            null
+                        ),
+                        () ->
+                            andThen(
+                                updateHeaders(
+                                    plan,
+                                    plan.getConditionalRemoveHeaders(),
+                                    null,
+                                    templateEngine,
+                                    conditionContext,
+                                    null,
+                                    (rule, value) -> httpHeaders.remove(rule.getName()),
+                                    null
+                                ),
+                                () -> {
+                                    final int whitelistDrops = removeHeaders(plan, httpHeaders);
+                                    if (metrics != null) {
+                                        metrics.dropped(whitelistDrops);
+                                    }
+                                    return COMPLETED;
+                                }
+                            )
+                    )
+            );
+        } catch (Exception e) {
+            return Completable.error(e);
+        }
     }
 
-    private Completable appendHeaders(final TemplateEngine templateEngine, final HttpHeaders httpHeaders) {
-        return updateHeaders(configuration::getAppendHeaders, templateEngine, (key, value) ->
-            Optional.ofNullable(httpHeaders)
-                .map(h -> h.add(key, value))
-                .orElse(null)
+    /**
+     * Captures what the direct checks of the conditions read. Conditions are never direct on native APIs, whose record
+     * headers are not HTTP headers.
+     */
+    private static HeaderConditionContext conditionContext(final HttpBaseExecutionContext ctx, final HttpHeaders messageHeaders) {
+        final HttpBaseRequest request = ctx.request();
+        final HttpBaseResponse response = ctx.response();
+        return new HeaderConditionContext(
+            request == null ? null : request.headers(),
+            response == null ? null : response.headers(),
+            messageHeaders,
+            request == null ? null : request.method(),
+            request == null ? null : request.path()
         );
     }
 
     @Override
     public Completable onMessageRequest(KafkaMessageExecutionContext ctx) {
-        return ctx.request().onMessage(message -> transformKafkaMessageHeaders(ctx, message));
+        final HeaderTransformationPlan messageRequestPlan = plans(ctx).getMessageRequestPlan();
+        if (messageRequestPlan.isEmpty()) {
+            return COMPLETED;
+        }
+        return ctx.request().onMessages(records -> transformRecords(messageRequestPlan, ctx, records));
     }
 
     @Override
     public Completable onMessageResponse(KafkaMessageExecutionContext ctx) {
-        return ctx.response().onMessage(message -> transformKafkaMessageHeaders(ctx, message));
+        final HeaderTransformationPlan messageResponsePlan = plans(ctx).getMessageResponsePlan();
+        if (messageResponsePlan.isEmpty()) {
+            return COMPLETED;
+        }
+        return ctx.response().onMessages(records -> transformRecords(messageResponsePlan, ctx, records));
+    }
+
+    /**
+     * Transforms a batch of records, the values not reading the record being evaluated once for the whole batch. Records
+     * are mapped in place when all the values are literals, and the ones transformed synchronously are emitted as scalars
+     * otherwise, without subscribing to an inner source. A header value that cannot be evaluated is reported and skipped,
+     * the record and the rest of the batch still going through, while a record whose headers cannot be transformed at all
+     * interrupts the flow with an invalid record error.
+     */
+    private Flowable<KafkaMessage> transformRecords(
+        final HeaderTransformationPlan plan,
+        final KafkaMessageExecutionContext ctx,
+        final Flowable<KafkaMessage> records
+    ) {
+        if (plan.isSynchronous()) {
+            return records.concatMap(record -> {
+                final Completable transformation = transformHeaders(plan, null, record, null, null);
+                return transformation == COMPLETED ? Flowable.just(record) : transformedRecord(ctx, record, transformation);
+            });
+        }
+
+        final MessageInvariantValues addValues = MessageInvariantValues.of(ctx, plan.getAddHeaders(), vertx(plan, ctx));
+        final MessageInvariantValues appendValues = MessageInvariantValues.of(ctx, plan.getAppendHeaders(), vertx(plan, ctx));
+
+        return records.concatMap(record -> {
+            final Completable transformation = transformHeaders(
+                plan,
+                plan.isMessageDependent() ? ctx.getTemplateEngine(record) : null,
+                record,
+                addValues,
+                appendValues
+            );
+            return transformation == COMPLETED ? Flowable.just(record) : transformedRecord(ctx, record, transformation);
+        });
     }
 
-    private Maybe<KafkaMessage> transformKafkaMessageHeaders(KafkaMessageExecutionContext ctx, KafkaMessage kafkaMessage) {
-        return transformHeaders(ctx.getTemplateEngine(kafkaMessage), kafkaMessage)
-            .onErrorResumeWith(ctx.executionContext().interruptWith(Errors.INVALID_RECORD))
-            .andThen(Maybe.just(kafkaMessage));
+    /**
+     * @return the record once transformed, or the interruption of the flow with an invalid record error when its
+     * transformation fails.
+     */
+    private Flowable<KafkaMessage> transformedRecord(
+        final KafkaMessageExecutionContext ctx,
+        final KafkaMessage record,
+        final Completable transformation
+    ) {
+        return transformation
+            .onErrorResumeNext(throwable -> {
+                reportRecordFailure(record, throwable);
+                return ctx.executionContext().interruptWith(Errors.INVALID_RECORD);
+            })
+            .andThen(Flowable.just(record));
     }
 
-    private Completable transformHeaders(final TemplateEngine templateEngine, final KafkaMessage message) {
-        return addHeaders(templateEngine, message).andThen(Completable.fromRunnable(() -> removeHeaders(message)));
+    private Completable transformHeaders(
+        final HeaderTransformationPlan plan,
+        final TemplateEngine templateEngine,
+        final KafkaMessage message,
+        final MessageInvariantValues addValues,
+        final MessageInvariantValues appendValues
+    ) {
+        try {
+            copyHeaders(plan, message);
+            final Consumer<Throwable> onError = throwable -> reportRecordFailure(message, throwable);
+            return andThen(
+                updateHeaders(
+                    plan,
+                    plan.getAddHeaders(),
+                    addValues,
+                    templateEngine,
+                    null,
+                    null,
+                    (rule, value) -> message.putRecordHeader(rule.getName(), toBuffer(rule, value)),
+                    onError
+                ),
+                () ->
+                    andThen(
+                        updateHeaders(
+                            plan,
+                            plan.getAppendHeaders(),
+                            appendValues,
+                            templateEngine,
+                            null,
+                            null,
+                            (rule, value) -> appendRecordHeader(message, rule.getName(), toBuffer(rule, value)),
+                            onError
+                        ),
+                        () ->
+                            andThen(
+                                updateHeaders(
+                                    plan,
+                                    plan.getConditionalRemoveHeaders(),
+                                    null,
+                                    templateEngine,
+                                    null,
+                                    null,
+                                    (rule, value) -> message.removeRecordHeader(rule.getName()),
+                                    onError
+                                ),
+                                () -> {
+                                    removeHeaders(plan, message);
+                                    return COMPLETED;
+                                }
+                            )
+                    )
+            );
+        } catch (Exception e) {
+            return Completable.error(e);
+        }
     }
 
-    private Completable addHeaders(final TemplateEngine templateEngine, final KafkaMessage message) {
-        return updateHeaders(configuration::getAddHeaders, templateEngine, (key, value) ->
-            message.putRecordHeader(key, Buffer.buffer(value))
+    /**
+     * Records the failure, and only logs it when it is sampled, like the failures of the other APIs.
+     */
+    private void reportRecordFailure(final KafkaMessage message, final Throwable throwable) {
+        final long notLogged = evaluationFailures.record();
+        if (notLogged == EvaluationFailures.NOT_SAMPLED || !log.isWarnEnabled()) {
+            return;
+        }
+        log.warn(
+            "Unable to transform the headers of record {}-{}@{} [not-logged-failures:{}]: {}",
+            message.topic(),
+            message.indexPartition(),
+            message.offset(),
+            notLogged,
+            throwable.getMessage()
         );
     }
 
+    /**
+     * Literal values are encoded once per policy instead of once per record.
+     */
+    private static Buffer toBuffer(final HeaderRule rule, final String value) {
+        return rule.isLiteral() ? rule.getValue().toBuffer() : Buffer.buffer(value);
+    }
+
+    /**
+     * Appends the value to the existing record header, if any, separated by a comma like HTTP header values. The buffers are
+     * chained to the record's own one, without copying nor decoding their bytes.
+     */
+    private static void appendRecordHeader(final KafkaMessage message, final String name, final Buffer value) {
+        final Buffer existing = message.recordHeaders().get(name);
+        if (existing == null) {
+            message.putRecordHeader(name, value);
+        } else {
+            message.putRecordHeader(name, existing.appendBuffer(APPEND_SEPARATOR.toBuffer()).appendBuffer(value));
+        }
+    }
+
+    /**
+     * Applies the rules in order, evaluating them one after the other or concurrently depending on the evaluation
+     * strategy. Plans whose values are all literals are always applied sequentially, there being nothing to wait for.
+     *
+     * @param metrics counting the values applied, <code>null</code> when they are not counted.
+     * @return {@link #COMPLETED} when all the rules have been applied synchronously.
+     */
     private Completable updateHeaders(
-        Callable<List<HttpHeader>> configurationHeaders,
+        final HeaderTransformationPlan plan,
+        final List<HeaderRule> rules,
+        final MessageInvariantValues invariantValues,
         final TemplateEngine templateEngine,
-        BiFunction<String, String, ?> updateHeaders
-    ) {
-        return Maybe.fromCallable(configurationHeaders)
-            .flatMapPublisher(Flowable::fromIterable)
-            .filter(httpHeader -> httpHeader.getName() != null && !httpHeader.getName().trim().isEmpty() && httpHeader.getValue() != null)
-            .flatMapCompletable(httpHeader ->
-                templateEngine
-                    .eval(httpHeader.getValue(), String.class)
-                    .doOnSuccess(newValue -> updateHeaders.apply(httpHeader.getName(), newValue))
-                    .ignoreElement()
-            );
+        final HeaderConditionContext conditionContext,
+        final TransformationMetrics metrics,
+        final BiConsumer<HeaderRule, String> updateHeaders,
+        final Consumer<Throwable> onError
+    ) {
+        if (plan.getEvaluationConcurrency() == 1 || plan.isSynchronous() || rules.size() < 2) {
+            return updateHeaders(rules, invariantValues, 0, templateEngine, conditionContext, metrics, updateHeaders, onError);
+        }
+
+        final EvaluationWindow window = new EvaluationWindow(rules.size(), plan.getEvaluationConcurrency());
+        final Completable transformation = applyResolved(
+            rules,
+            window,
+            invariantValues,
+            0,
+            templateEngine,
+            conditionContext,
+            metrics,
+            updateHeaders,
+            onError
+        );
+        return transformation == COMPLETED ? COMPLETED : transformation.doOnDispose(window.evaluations::dispose);
+    }
+
+    /**
+     * Applies the values in order, starting at the given index. Before waiting for a value, the evaluations of the rules
+     * coming into the window are started, so that at most <code>window</code> rules are evaluated at once. A rule reading a
+     * header written by a previous rule of the window is only started once that one has been applied, so that it gives the
+     * same result as when the rules are evaluated one after the other. The evaluations in progress are disposed as soon as
+     * one of them fails the transformation.
+     */
+    private Completable applyResolved(
+        final List<HeaderRule> rules,
+        final EvaluationWindow window,
+        final MessageInvariantValues invariantValues,
+        final int from,
+        final TemplateEngine templateEngine,
+        final HeaderConditionContext conditionContext,
+        final TransformationMetrics metrics,
+        final BiConsumer<HeaderRule, String> updateHeaders,
+        final Consumer<Throwable> onError
+    ) {
+        for (int index = from; index < rules.size(); index++) {
+            while (
+                window.started < rules.size() &&
+                window.started - index < window.size &&
+                rules.get(window.started).getDependency() < index
+            ) {
+                final int next = window.started++;
+                window.computed[next] = computes(rules.get(next), invariantValues, next, conditionContext, metrics);
+                window.values[next] = resolve(rules.get(next), invariantValues, next, templateEngine, conditionContext, window.evaluations);
+            }
+
+            final HeaderRule rule = rules.get(index);
+            final MaybeSubject<String> value = window.values[index];
+            final boolean computed = window.computed[index];
+            if (value.hasValue()) {
+                updateHeaders.accept(rule, value.getValue());
+                applied(metrics, rule, computed);
+            } else if (value.hasThrowable()) {
+                final Completable failure = failed(value.getThrowable(), onError);
+                if (failure != COMPLETED) {
+                    window.evaluations.dispose();
+                    return failure;
+                }
+            } else if (!value.hasComplete()) {
+                final int current = index;
+                return andThen(
+                    value
+                        .doOnSuccess(newValue -> {
+                            updateHeaders.accept(rule, newValue);
+                            applied(metrics, rule, computed);
+                        })
+                        .ignoreElement()
+                        .onErrorResumeNext(throwable -> {
+                            final Completable failure = failed(throwable, onError);
+                            if (failure != COMPLETED) {
+                                window.evaluations.dispose();
+                            }
+                            return failure;
+                        }),
+                    () ->
+                        applyResolved(
+                            rules,
+                            window,
+                            invariantValues,
+                            current + 1,
+                            templateEngine,
+                            conditionContext,
+                            metrics,
+                            updateHeaders,
+                            onError
+                        )
+                );
+            }
+        }
+        return COMPLETED;
+    }
+
+    /**
+     * Starts evaluating the condition, then the value, of a rule.
+     *
+     * @return the value to apply, empty when the condition does not hold.
+     */
+    private MaybeSubject<String> resolve(
+        final HeaderRule rule,
+        final MessageInvariantValues invariantValues,
+        final int index,
+        final TemplateEngine templateEngine,
+        final HeaderConditionContext conditionContext,
+        final CompositeDisposable evaluations
+    ) {
+        if (rule.getCondition() == null) {
+            return valueOf(rule, invariantValues, index, templateEngine, conditionContext, evaluations);
+        }
+
+        final MaybeSubject<Boolean> matches = rule.getCondition().evaluate(templateEngine, conditionContext, evaluations);
+        if (matches.hasValue()) {
+            return matches.getValue() ? valueOf(rule, invariantValues, index, templateEngine, conditionContext, evaluations) : SKIPPED;
+        } else if (matches.hasComplete()) {
+            return SKIPPED;
+        }
+
+        final MaybeSubject<String> value = MaybeSubject.create();
+        matches
+            .flatMap(match -> match ? valueOf(rule, invariantValues, index, templateEngine, conditionContext, evaluations) : SKIPPED)
+            .subscribe(value);
+        return value;
+    }
+
+    /**
+     * @param evaluations the evaluations in progress, which the message invariant values, shared by the whole flow, are not
+     * added to.
+     */
+    private MaybeSubject<String> valueOf(
+        final HeaderRule rule,
+        final MessageInvariantValues invariantValues,
+        final int index,
+        final TemplateEngine templateEngine,
+        final HeaderConditionContext conditionContext,
+        final CompositeDisposable evaluations
+    ) {
+        if (rule.isLiteral()) {
+            final MaybeSubject<String> value = MaybeSubject.create();
+            value.onSuccess(rule.getValue().getExpression());
+            return value;
+        }
+        return invariantValues != null && rule.isMessageInvariant()
+            ? invariantValues.get(index, rule)
+            : rule.evaluate(templateEngine, conditionContext, vertx(rule), evaluations);
+    }
+
+    /**
+     * Applies the rules in order, starting at the given index. Literal values, expressions resolving synchronously and
+     * direct conditions are applied inline; the reactive chain is only built from the first condition or expression that
+     * needs an asynchronous evaluation. A rule whose condition does not hold is skipped without evaluating its value.
+     * When message invariant values are given, the rules not reading the message reuse them instead of being evaluated.
+     * When an error handler is given, a rule failing to evaluate is reported to it and skipped instead of failing the
+     * transformation.
+     *
+     * @return {@link #COMPLETED} when all the rules have been applied synchronously.
+     */
+    private Completable updateHeaders(
+        final List<HeaderRule> rules,
+        final MessageInvariantValues invariantValues,
+        final int from,
+        final TemplateEngine templateEngine,
+        final HeaderConditionContext conditionContext,
+        final TransformationMetrics metrics,
+        final BiConsumer<HeaderRule, String> updateHeaders,
+        final Consumer<Throwable> onError
+    ) {
+        for (int index = from; index < rules.size(); index++) {
+            final HeaderRule rule = rules.get(index);
+            final int current = index;
+            final Supplier<Completable> next = () ->
+                updateHeaders(rules, invariantValues, current + 1, templateEngine, conditionContext, metrics, updateHeaders, onError);
+
+            Completable update;
+            if (rule.getCondition() == null) {
+                update = updateHeader(rule, invariantValues, index, templateEngine, conditionContext, metrics, updateHeaders, onError);
+            } else {
+                final MaybeSubject<Boolean> matches = rule.getCondition().evaluate(templateEngine, conditionContext);
+                if (matches.hasValue()) {
+                    update = matches.getValue()
+                        ? updateHeader(rule, invariantValues, index, templateEngine, conditionContext, metrics, updateHeaders, onError)
+                        : COMPLETED;
+                } else if (matches.hasThrowable()) {
+                    update = failed(matches.getThrowable(), onError);
+                } else if (matches.hasComplete()) {
+                    update = COMPLETED;
+                } else {
+                    update = matches
+                        .flatMapCompletable(match ->
+                            match
+                                ? updateHeader(
+                                    rule,
+                                    invariantValues,
+                                    current,
+                                    templateEngine,
+                                    conditionContext,
+                                    metrics,
+                                    updateHeaders,
+                                    onError
+                                )
+                                : COMPLETED
+                        )
+                        .onErrorResumeNext(throwable -> failed(throwable, onError));
+                }
+            }
+
+            if (update != COMPLETED) {
+                return andThen(update, next);
+            }
+        }
+        return COMPLETED;
+    }
+
+    /**
+     * Applies the value of a single rule, read from its cache when it has one.
+     *
+     * @return {@link #COMPLETED} when the value has been applied, or skipped, synchronously.
+     */
+    private Completable updateHeader(
+        final HeaderRule rule,
+        final MessageInvariantValues invariantValues,
+        final int index,
+        final TemplateEngine templateEngine,
+        final HeaderConditionContext conditionContext,
+        final TransformationMetrics metrics,
+        final BiConsumer<HeaderRule, String> updateHeaders,
+        final Consumer<Throwable> onError
+    ) {
+        if (rule.isLiteral()) {
+            updateHeaders.accept(rule, rule.getValue().getExpression());
+            applied(metrics, rule, false);
+            return COMPLETED;
+        }
+
+        final boolean computed = computes(rule, invariantValues, index, conditionContext, metrics);
+        final MaybeSubject<String> value = invariantValues != null && rule.isMessageInvariant()
+            ? invariantValues.get(index, rule)
+            : rule.evaluate(templateEngine, conditionContext, vertx(rule));
+
+        if (value.hasValue()) {
+            updateHeaders.accept(rule, value.getValue());
+            applied(metrics, rule, computed);
+            return COMPLETED;
+        } else if (value.hasThrowable()) {
+            return failed(value.getThrowable(), onError);
+        } else if (value.hasComplete()) {
+            return COMPLETED;
+        }
+        return value
+            .doOnSuccess(newValue -> {
+                updateHeaders.accept(rule, newValue);
+                applied(metrics, rule, computed);
+            })
+            .ignoreElement()
+            .onErrorResumeNext(throwable -> failed(throwable, onError));
+    }
+
+    /**
+     * @return whether the value of the rule is computed for the current transformation, i.e. it is an expression neither
+     * read from its cache nor reused from a previous message of the flow. Only checked when the values are counted, the
+     * cache lookup being counted as well.
+     */
+    private static boolean computes(
+        final HeaderRule rule,
+        final MessageInvariantValues invariantValues,
+        final int index,
+        final HeaderConditionContext conditionContext,
+        final TransformationMetrics metrics
+    ) {
+        if (metrics == null || rule.isLiteral()) {
+            return false;
+        }
+        if (invariantValues != null && rule.isMessageInvariant()) {
+            return !invariantValues.isEvaluated(index);
+        }
+        if (!rule.isCacheable(conditionContext)) {
+            return true;
+        }
+        final boolean cached = rule.isCached(conditionContext);
+        metrics.cacheLookup(cached);
+        return !cached;
+    }
+
+    private static void applied(final TransformationMetrics metrics, final HeaderRule rule, final boolean computed) {
+        if (metrics == null) {
+            return;
+        }
+        if (rule.isLiteral()) {
+            metrics.literalValue();
+        } else if (computed) {
+            metrics.expressionValue();
+        }
+    }
+
+    /**
+     * @return a failed transformation, or {@link #COMPLETED} once the error is reported to the given handler, if any.
+     */
+    private static Completable failed(final Throwable throwable, final Consumer<Throwable> onError) {
+        if (onError == null) {
+            return Completable.error(throwable);
+        }
+        onError.accept(throwable);
+        return COMPLETED;
+    }
+
+    /**
+     * @return the current plans, reloading the rules first when they are due for it.
+     */
+    private HeaderTransformationPlans plans(final BaseExecutionContext ctx) {
+        return plans.isReloadDue() ? plans.reload(ctx.getTemplateEngine()) : plans.current();
+    }
+
+    /**
+     * Resolves the Vert.x instance of the gateway once, when the plan offloads at least one value.
+     */
+    private Vertx vertx(final HeaderTransformationPlan plan, final BaseExecutionContext ctx) {
+        return plan.isOffloading() ? vertx(ctx) : vertx;
+    }
+
+    private Vertx vertx(final BaseExecutionContext ctx) {
+        if (vertx == null) {
+            vertx = ctx.getComponent(Vertx.class);
+        }
+        return vertx;
+    }
+
+    /**
+     * @return the Vert.x instance used to evaluate the value of the rule off the event loop, <code>null</code> when it is
+     * evaluated on the current thread.
+     */
+    private Vertx vertx(final HeaderRule rule) {
+        return rule.isOffloaded() ? vertx : null;
+    }
+
+    private static MaybeSubject<String> skipped() {
+        final MaybeSubject<String> subject = MaybeSubject.create();
+        subject.onComplete();
+        return subject;
+    }
+
+    private static Completable andThen(final Completable previous, final Supplier<Completable> next) {
+        if (previous == COMPLETED) {
+            return next.get();
+        }
+        return previous.andThen(Completable.defer(next::get));
+    }
+
+    /**
+     * Rules of a list evaluated concurrently: the values of the rules started so far, and the evaluations still in
+     * progress.
+     */
+    private static final class EvaluationWindow {
+
+        private final MaybeSubject<String>[] values;
+
+        /**
+         * Whether the value of each rule started so far is computed for the current transformation, see
+         * {@link #computes(HeaderRule, MessageInvariantValues, int, HeaderConditionContext, TransformationMetrics)}.
+         */
+        private final boolean[] computed;
+
+        /**
+         * Maximum number of rules evaluated ahead of the first rule not applied yet, itself included.
+         */
+        private final int size;
+
+        private final CompositeDisposable evaluations = new CompositeDisposable();
+
+        /**
+         * Number of rules whose evaluation has been started, in the order of the rules.
+         */
+        private int started;
+
+        @SuppressWarnings("unchecked")
+        private EvaluationWindow(final int rules, final int size) {
+            this.values = new MaybeSubject[rules];
+            this.computed = new boolean[rules];
+            this.size = size;
+        }
+    }
+
+    /**
+     * Failed transformation of a message whose values are all literals, ending the mapping of the messages so that the
+     * flow is only interrupted once a transformation fails.
+     */
+    private static final class FailedTransformation extends RuntimeException {
+
+        private final transient Completable transformation;
+
+        private FailedTransformation(final Completable transformation) {
+            super(null, null, false, false);
+            this.transformation = transformation;
+        }
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders;
+
+import io.gravitee.reporter.api.v4.metric.Metrics;
+
+/**
+ * Metrics of the transformations applied in one phase of a request, or to the messages of one flow. They are accumulated
+ * without synchronization, transformations of a request or a flow being sequential, then reported once as additional
+ * metrics of the request, where the analytics can aggregate them per API, e.g. as a latency histogram.
+ *
+ * <p>
+ * The duration is the time spent transforming on the calling thread, i.e. the event loop time. Waiting for an
+ * asynchronous expression is not included.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+final class TransformationMetrics {
+
+    enum Phase {
+        REQUEST("request"),
+        RESPONSE("response"),
+        MESSAGE_REQUEST("message-request"),
+        MESSAGE_RESPONSE("message-response");
+
+        private final String durationKey;
+        private final String transformationsKey;
+        private final String expressionValuesKey;
+        private final String literalValuesKey;
+        private final String cacheHitsKey;
+        private final String cacheMissesKey;
+        private final String whitelistDropsKey;
+        private final String failuresKey;
+
+        Phase(final String name) {
+            final String prefix = "long_transform-headers_" + name + "_";
+            this.durationKey = prefix + "duration-ns";
+            this.transformationsKey = prefix + "transformations";
+            this.expressionValuesKey = prefix + "expression-values";
+            this.literalValuesKey = prefix + "literal-values";
+            this.cacheHitsKey = prefix + "cache-hits";
+            this.cacheMissesKey = prefix + "cache-misses";
+            this.whitelistDropsKey = prefix + "whitelist-drops";
+            this.failuresKey = prefix + "failures";
+        }
+    }
+
+    private final Phase phase;
+
+    private long durationNanos;
+
+    private long transformations;
+
+    private long expressionValues;
+
+    private long literalValues;
+
+    private long cacheHits;
+
+    private long cacheMisses;
+
+    private long whitelistDrops;
+
+    private long failures;
+
+    TransformationMetrics(final Phase phase) {
+        this.phase = phase;
+    }
+
+    void transformed(final long durationNanos) {
+        this.durationNanos += durationNanos;
+        this.transformations++;
+    }
+
+    /**
+     * Counts a value computed from an expression and applied, neither read from a cache nor reused from a previous message.
+     */
+    void expressionValue() {
+        this.expressionValues++;
+    }
+
+    /**
+     * Counts a literal value applied.
+     */
+    void literalValue() {
+        this.literalValues++;
+    }
+
+    /**
+     * Counts a value looked up in its cache, either found or to be evaluated.
+     */
+    void cacheLookup(final boolean hit) {
+        if (hit) {
+            this.cacheHits++;
+        } else {
+            this.cacheMisses++;
+        }
+    }
+
+    void dropped(final int whitelistDrops) {
+        this.whitelistDrops += whitelistDrops;
+    }
+
+    void failed() {
+        this.failures++;
+    }
+
+    void report(final Metrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+        metrics
+            .putAdditionalMetric(phase.durationKey, durationNanos)
+            .putAdditionalMetric(phase.transformationsKey, transformations)
+            .putAdditionalMetric(phase.expressionValuesKey, expressionValues)
+            .putAdditionalMetric(phase.literalValuesKey, literalValues)
+            .putAdditionalMetric(phase.cacheHitsKey, cacheHits)
+            .putAdditionalMetric(phase.cacheMissesKey, cacheMisses)
+            .putAdditionalMetric(phase.whitelistDropsKey, whitelistDrops)
+            .putAdditionalMetric(phase.failuresKey, failures);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.configuration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Sets a header to a value read from a JSON body by the content scopes.
+ *
+ * @author GraviteeSource Team
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BodyHeader {
+
+    private String name;
+
+    /**
+     * Location of the value in the body, either a JSON pointer (e.g. <code>/tenant/id</code>) or a JSONPath made of
+     * names and indexes only (e.g. <code>$.tenant.id</code> or <code>$.items[0]['id']</code>).
+     */
+    private String pointer;
+}
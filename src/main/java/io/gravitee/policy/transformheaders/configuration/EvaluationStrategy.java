@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.configuration;
+
+/**
+ * How the asynchronous header values and conditions are evaluated on V4 APIs. Whatever the strategy, a rule reading a
+ * header written by a previous rule is evaluated once that one has been applied, and the values are applied in the order
+ * of the rules, so that every strategy gives the same headers.
+ *
+ * @author GraviteeSource Team
+ */
+public enum EvaluationStrategy {
+    /**
+     * Evaluates each rule once the previous one has been applied, so that it sees the headers it changed.
+     */
+    SEQUENTIAL,
+
+    /**
+     * Evaluates up to {@link TransformHeadersPolicyConfiguration#getMaxConcurrentEvaluations()} rules at once, ahead of
+     * the rule being applied, as long as they do not read the headers of the rules not applied yet.
+     */
+    BOUNDED_PARALLEL,
+
+    /**
+     * Evaluates all the rules at once, except the ones reading the headers of the rules not applied yet.
+     */
+    PARALLEL,
+}
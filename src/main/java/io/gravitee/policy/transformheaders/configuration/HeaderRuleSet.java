@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.configuration;
+
+import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Header transformations applied in a phase.
+ *
+ * @author GraviteeSource Team
+ */
+@Getter
+@Setter
+public class HeaderRuleSet {
+
+    private List<String> removeHeaders = null;
+
+    /**
+     * Headers removed only when their condition holds.
+     */
+    private List<HeaderRemoval> conditionalRemoveHeaders = null;
+
+    /**
+     * Copies and moves applied before the other transformations.
+     */
+    private List<HeaderOperation> headerOperations = null;
+
+    private List<HttpHeader> addHeaders = null;
+
+    private List<HttpHeader> appendHeaders = null;
+
+    private List<String> whitelistHeaders = null;
+}
@@ -27,6 +27,32 @@ public class HttpHeader {
 
     private String value;
 
+    /**
+     * Boolean expression deciding whether the header is set or appended, always when not set.
+     */
+    private String condition;
+
+    /**
+     * Number of seconds the result of the value is kept for the same request headers, method and path, not cached when
+     * not set.
+     */
+    private Integer cacheTtl;
+
+    /**
+     * Whether the value is evaluated on a worker thread rather than on the event loop.
+     */
+    private boolean offloaded;
+
+    /**
+     * Maximum time, in milliseconds, to wait for an offloaded value, 1000 when not set.
+     */
+    private Integer timeout;
+
+    /**
+     * Value used when an offloaded value times out, the header being skipped when not set.
+     */
+    private String fallbackValue;
+
     public HttpHeader() {}
 
     public HttpHeader(String name, String value) {
@@ -34,6 +60,12 @@ public class HttpHeader {
         this.value = value;
     }
 
+    public HttpHeader(String name, String value, String condition) {
+        this.name = name;
+        this.value = value;
+        this.condition = condition;
+    }
+
     public String getName() {
         return name;
     }
@@ -50,16 +82,64 @@ public class HttpHeader {
         this.value = value;
     }
 
+    public String getCondition() {
+        return condition;
+    }
+
+    public void setCondition(String condition) {
+        this.condition = condition;
+    }
+
+    public Integer getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(Integer cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public boolean isOffloaded() {
+        return offloaded;
+    }
+
+    public void setOffloaded(boolean offloaded) {
+        this.offloaded = offloaded;
+    }
+
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Integer timeout) {
+        this.timeout = timeout;
+    }
+
+    public String getFallbackValue() {
+        return fallbackValue;
+    }
+
+    public void setFallbackValue(String fallbackValue) {
+        this.fallbackValue = fallbackValue;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         HttpHeader that = (HttpHeader) o;
-        return Objects.equals(name, that.name);
+        return (
+            offloaded == that.offloaded &&
+            Objects.equals(name, that.name) &&
+            Objects.equals(value, that.value) &&
+            Objects.equals(condition, that.condition) &&
+            Objects.equals(cacheTtl, that.cacheTtl) &&
+            Objects.equals(timeout, that.timeout) &&
+            Objects.equals(fallbackValue, that.fallbackValue)
+        );
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return Objects.hash(name, value, condition, cacheTtl, offloaded, timeout, fallbackValue);
     }
 }
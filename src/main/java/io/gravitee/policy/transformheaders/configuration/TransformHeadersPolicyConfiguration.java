@@ -27,15 +27,70 @@ import lombok.Setter;
  */
 @Getter
 @Setter
-public class TransformHeadersPolicyConfiguration implements PolicyConfiguration {
+public class TransformHeadersPolicyConfiguration extends HeaderRuleSet implements PolicyConfiguration {
 
     private PolicyScope scope = PolicyScope.REQUEST;
 
-    private List<String> removeHeaders = null;
+    /**
+     * Transformations of the request headers on V4 APIs, replacing the common ones when set.
+     */
+    private HeaderRuleSet request = null;
 
-    private List<HttpHeader> addHeaders = null;
+    /**
+     * Transformations of the response headers on V4 APIs, replacing the common ones when set.
+     */
+    private HeaderRuleSet response = null;
 
-    private List<HttpHeader> appendHeaders = null;
+    /**
+     * Transformations of the published messages on V4 message and native APIs, replacing the common ones when set.
+     */
+    private HeaderRuleSet messageRequest = null;
 
-    private List<String> whitelistHeaders = null;
+    /**
+     * Transformations of the subscribed messages on V4 message and native APIs, replacing the common ones when set.
+     */
+    private HeaderRuleSet messageResponse = null;
+
+    /**
+     * Maximum size, in bytes, of the body buffered by the content scopes. Unlimited when not set.
+     */
+    private Integer maxContentSize = null;
+
+    /**
+     * Headers set from the values read from the body by the content scopes of V3 APIs.
+     */
+    private List<BodyHeader> bodyHeaders = null;
+
+    /**
+     * Maximum number of results kept by each cached header value, 1000 when not set.
+     */
+    private Integer cacheMaxSize = null;
+
+    /**
+     * How the header values and conditions are evaluated on V4 APIs.
+     */
+    private EvaluationStrategy evaluationStrategy = EvaluationStrategy.SEQUENTIAL;
+
+    /**
+     * Maximum number of rules evaluated at once with {@link EvaluationStrategy#BOUNDED_PARALLEL}, 4 when not set.
+     */
+    private Integer maxConcurrentEvaluations = null;
+
+    /**
+     * Name of the gateway dictionary holding the rules as JSON under {@link #rulesDictionaryKey}, reloaded when the value
+     * changes instead of the rules of this configuration.
+     */
+    private String rulesDictionary = null;
+
+    private String rulesDictionaryKey = null;
+
+    /**
+     * Minimum number of seconds between two checks of the rules dictionary, 10 when not set.
+     */
+    private Integer rulesReloadInterval = null;
+
+    /**
+     * Whether the transformation metrics are reported as additional metrics of the request.
+     */
+    private boolean reportMetrics = false;
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.gravitee.policy.transformheaders.configuration.BodyHeader;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A validated header read from the body: the pointer is split into the names and indexes of its segments, so that the
+ * body can be matched while it is parsed.
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+@Getter
+public final class BodyHeaderRule {
+
+    private static final int NOT_AN_INDEX = -1;
+
+    private final String name;
+
+    private final String pointer;
+
+    /**
+     * Names of the segments, matched against the fields of the objects.
+     */
+    @Getter(AccessLevel.NONE)
+    private final String[] names;
+
+    /**
+     * Indexes of the segments, matched against the elements of the arrays, {@link #NOT_AN_INDEX} when not a number.
+     */
+    @Getter(AccessLevel.NONE)
+    private final int[] indexes;
+
+    private BodyHeaderRule(final String name, final String pointer, final List<String> segments) {
+        this.name = name;
+        this.pointer = pointer;
+        this.names = segments.toArray(new String[0]);
+        this.indexes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indexes[i] = index(names[i]);
+        }
+    }
+
+    /**
+     * @return the rule, or <code>null</code>, with a warning, when the pointer is neither a JSON pointer nor a JSONPath made
+     * of names and indexes only.
+     */
+    static BodyHeaderRule compile(final BodyHeader header) {
+        final String pointer = header.getPointer().trim();
+        final List<String> segments = pointer.startsWith("$") ? jsonPathSegments(pointer) : jsonPointerSegments(pointer);
+        if (segments == null) {
+            log.warn(
+                "Header {} is not read from the body, {} is neither a JSON pointer nor a supported JSONPath",
+                header.getName(),
+                pointer
+            );
+            return null;
+        }
+        return new BodyHeaderRule(header.getName().trim(), pointer, segments);
+    }
+
+    /**
+     * @return the number of segments, i.e. the depth of the value in the body.
+     */
+    int depth() {
+        return names.length;
+    }
+
+    /**
+     * @return whether the segment at the given depth designates the given field of an object.
+     */
+    boolean matchesName(final int depth, final String name) {
+        return names[depth].equals(name);
+    }
+
+    /**
+     * @return whether the segment at the given depth designates the given element of an array.
+     */
+    boolean matchesIndex(final int depth, final int index) {
+        return indexes[depth] == index;
+    }
+
+    /**
+     * Splits a JSON pointer, as defined by RFC 6901, e.g. <code>/tenant/id</code>.
+     */
+    private static List<String> jsonPointerSegments(final String pointer) {
+        if (!pointer.isEmpty() && pointer.charAt(0) != '/') {
+            return null;
+        }
+
+        final List<String> segments = new ArrayList<>();
+        int start = 1;
+        while (start <= pointer.length()) {
+            int end = pointer.indexOf('/', start);
+            if (end < 0) {
+                end = pointer.length();
+            }
+            segments.add(pointer.substring(start, end).replace("~1", "/").replace("~0", "~"));
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    /**
+     * Splits a JSONPath made of names and indexes only, e.g. <code>$.tenant.id</code> or <code>$.items[0]['id']</code>.
+     * Wildcards, deep scans, slices and filters are not supported.
+     */
+    private static List<String> jsonPathSegments(final String path) {
+        final List<String> segments = new ArrayList<>();
+        int i = 1;
+        while (i < path.length()) {
+            final char c = path.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                final String segment = path.substring(i + 1, end);
+                if (segment.isEmpty() || segment.equals("*")) {
+                    return null;
+                }
+                segments.add(segment);
+                i = end;
+            } else if (c == '[') {
+                final int end = path.indexOf(']', i);
+                if (end < 0) {
+                    return null;
+                }
+                final String segment = path.substring(i + 1, end).trim();
+                if (isQuoted(segment)) {
+                    segments.add(segment.substring(1, segment.length() - 1));
+                } else if (index(segment) != NOT_AN_INDEX) {
+                    segments.add(segment);
+                } else {
+                    return null;
+                }
+                i = end + 1;
+            } else {
+                return null;
+            }
+        }
+        return segments;
+    }
+
+    private static boolean isQuoted(final String segment) {
+        return (
+            segment.length() >= 2 &&
+            segment.charAt(0) == segment.charAt(segment.length() - 1) &&
+            (segment.charAt(0) == '\'' || segment.charAt(0) == '"')
+        );
+    }
+
+    private static int index(final String segment) {
+        if (segment.isEmpty() || segment.length() > 9 || (segment.length() > 1 && segment.charAt(0) == '0')) {
+            return NOT_AN_INDEX;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (segment.charAt(i) < '0' || segment.charAt(i) > '9') {
+                return NOT_AN_INDEX;
+            }
+        }
+        return Integer.parseInt(segment);
+    }
+}
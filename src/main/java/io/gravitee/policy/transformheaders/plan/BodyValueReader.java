@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import io.gravitee.gateway.api.buffer.Buffer;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads the values of the {@link BodyHeaderRule}s from a JSON body, chunk by chunk, as it passes through the content
+ * scopes.
+ *
+ * <p>
+ * The chunks are fed to a non-blocking parser, which never decodes the body into a <code>String</code> nor builds a tree:
+ * only the path of the current token is tracked, and the scalar values the rules point to are kept. Reading stops as soon
+ * as every value has been found, when the JSON document ends, or when the body is not valid JSON, so that the following
+ * chunks are not parsed at all. A reader is used by a single request and is not thread-safe.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+public final class BodyValueReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final int INITIAL_DEPTH = 8;
+
+    private final List<BodyHeaderRule> rules;
+
+    private final String[] values;
+
+    private final boolean[] found;
+
+    private int remaining;
+
+    private JsonParser parser;
+
+    private ByteBufferFeeder feeder;
+
+    /**
+     * Field names of the objects of the current path, <code>null</code> for the arrays.
+     */
+    private String[] names = new String[INITIAL_DEPTH];
+
+    /**
+     * Index of the current element of the arrays of the current path.
+     */
+    private int[] indexes = new int[INITIAL_DEPTH];
+
+    private boolean[] arrays = new boolean[INITIAL_DEPTH];
+
+    private int depth;
+
+    private boolean done;
+
+    public BodyValueReader(final List<BodyHeaderRule> rules) {
+        this.rules = rules;
+        this.values = new String[rules.size()];
+        this.found = new boolean[rules.size()];
+        this.remaining = rules.size();
+    }
+
+    /**
+     * Parses the given chunk of the body.
+     *
+     * @return <code>true</code> when nothing more is to be read from the body, so that the following chunks can be
+     * streamed without being parsed.
+     */
+    public boolean read(final Buffer chunk) {
+        if (done) {
+            return true;
+        }
+
+        try {
+            if (parser == null) {
+                parser = JSON_FACTORY.createNonBlockingByteBufferParser();
+                feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+            }
+            feeder.feedInput(chunk.getNativeBuffer().nioBuffer());
+            parse();
+        } catch (IOException ex) {
+            log.debug("Body is not valid JSON, headers are not read from it: {}", ex.getMessage());
+            finish();
+        }
+        return done;
+    }
+
+    /**
+     * Signals the end of the body, the values not found so far being missing.
+     */
+    public void end() {
+        if (done || parser == null) {
+            done = true;
+            return;
+        }
+
+        try {
+            feeder.endOfInput();
+            parse();
+        } catch (IOException ex) {
+            log.debug("Body is not valid JSON, headers are not read from it: {}", ex.getMessage());
+        }
+        finish();
+    }
+
+    /**
+     * @return the value of the rule at the given position, <code>null</code> when it has not been found, or is
+     * <code>null</code>, an object or an array.
+     */
+    public String value(final int rule) {
+        return values[rule];
+    }
+
+    private void parse() throws IOException {
+        JsonToken token;
+        while (!done && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE) {
+            if (token == null) {
+                finish();
+                return;
+            }
+
+            switch (token) {
+                case FIELD_NAME:
+                    names[depth - 1] = parser.currentName();
+                    break;
+                case START_OBJECT:
+                case START_ARRAY:
+                    nextElement();
+                    push(token == JsonToken.START_ARRAY);
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    if (--depth == 0) {
+                        finish();
+                    }
+                    break;
+                default:
+                    nextElement();
+                    readValue(token);
+                    if (depth == 0) {
+                        finish();
+                    }
+            }
+        }
+    }
+
+    private void nextElement() {
+        if (depth > 0 && arrays[depth - 1]) {
+            indexes[depth - 1]++;
+        }
+    }
+
+    private void push(final boolean array) {
+        if (depth == arrays.length) {
+            names = Arrays.copyOf(names, depth * 2);
+            indexes = Arrays.copyOf(indexes, depth * 2);
+            arrays = Arrays.copyOf(arrays, depth * 2);
+        }
+        names[depth] = null;
+        indexes[depth] = -1;
+        arrays[depth] = array;
+        depth++;
+    }
+
+    private void readValue(final JsonToken token) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (!found[i] && matches(rules.get(i))) {
+                found[i] = true;
+                if (token != JsonToken.VALUE_NULL) {
+                    values[i] = parser.getText();
+                }
+                if (--remaining == 0) {
+                    finish();
+                }
+            }
+        }
+    }
+
+    private boolean matches(final BodyHeaderRule rule) {
+        if (rule.depth() != depth) {
+            return false;
+        }
+        for (int i = 0; i < depth; i++) {
+            if (arrays[i] ? !rule.matchesIndex(i, indexes[i]) : !rule.matchesName(i, names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void finish() {
+        done = true;
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException ex) {
+                // Nothing to release, the parser reads from the fed chunks only
+            }
+            parser = null;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import lombok.Getter;
+
+/**
+ * Condition of a header rule, compiled once from its boolean expression.
+ *
+ * <p>
+ * The most common shapes of condition are recognized and checked directly against the headers, method and path, without
+ * going through the template engine:
+ * <ul>
+ *     <li><code>{#request.headers['X-Name'] != null}</code>, or <code>== null</code>, also on <code>#response</code> and
+ *     <code>#message</code></li>
+ *     <li><code>{#request.headers['X-Name'][0] == 'value'}</code>, or <code>!=</code>; a missing header is not equal to any
+ *     value</li>
+ *     <li><code>{#request.method == 'GET'}</code> and <code>{#request.path == '/path'}</code>, or <code>!=</code></li>
+ *     <li><code>{#request.path matches '/path/.*'}</code></li>
+ * </ul>
+ * Any other condition is evaluated as an expression, and an empty result does not match.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+public final class HeaderCondition {
+
+    private static final MaybeSubject<Boolean> MATCHED = completed(true);
+
+    private static final MaybeSubject<Boolean> NOT_MATCHED = completed(false);
+
+    private static final Pattern HEADER_PRESENCE = Pattern.compile(
+        "\\{\\s*#(request|response|message)\\.headers\\s*\\[\\s*'([^']+)'\\s*]\\s*([!=]=)\\s*null\\s*}"
+    );
+
+    private static final Pattern HEADER_VALUE = Pattern.compile(
+        "\\{\\s*#(request|response|message)\\.headers\\s*\\[\\s*'([^']+)'\\s*]\\s*\\[\\s*0\\s*]\\s*([!=]=)\\s*'([^']*)'\\s*}"
+    );
+
+    private static final Pattern REQUEST_ATTRIBUTE = Pattern.compile("\\{\\s*#request\\.(method|path)\\s*([!=]=)\\s*'([^']*)'\\s*}");
+
+    private static final Pattern PATH_MATCHES = Pattern.compile("\\{\\s*#request\\.path\\s+matches\\s+'([^']*)'\\s*}");
+
+    private enum Check {
+        CONSTANT,
+        HEADER_PRESENT,
+        HEADER_EQUALS,
+        METHOD_EQUALS,
+        PATH_EQUALS,
+        PATH_MATCHES,
+        EXPRESSION,
+    }
+
+    @Getter
+    private final HeaderExpression expression;
+
+    private final Check check;
+
+    /**
+     * Template variable whose headers are checked: <code>request</code>, <code>response</code> or <code>message</code>.
+     */
+    private final String variable;
+
+    private final String name;
+
+    private final String value;
+
+    /**
+     * Compiled regular expression of a <code>matches</code> condition.
+     */
+    private final Pattern pattern;
+
+    /**
+     * Whether the result of the check is negated, for <code>!=</code> and <code>== null</code>.
+     */
+    private final boolean negated;
+
+    private HeaderCondition(
+        final HeaderExpression expression,
+        final Check check,
+        final String variable,
+        final String name,
+        final String value,
+        final Pattern pattern,
+        final boolean negated
+    ) {
+        this.expression = expression;
+        this.check = check;
+        this.variable = variable;
+        this.name = name;
+        this.value = value;
+        this.pattern = pattern;
+        this.negated = negated;
+    }
+
+    /**
+     * @return the compiled condition, or <code>null</code> when the condition is blank so that the rule always applies.
+     */
+    static HeaderCondition compile(final String condition) {
+        if (condition == null || condition.trim().isEmpty()) {
+            return null;
+        }
+
+        final String text = condition.trim();
+        final HeaderExpression expression = HeaderExpression.compile(text);
+        if (expression.isLiteral()) {
+            return new HeaderCondition(expression, Check.CONSTANT, null, null, null, null, !Boolean.parseBoolean(text));
+        }
+
+        Matcher matcher = HEADER_PRESENCE.matcher(text);
+        if (matcher.matches()) {
+            return new HeaderCondition(
+                expression,
+                Check.HEADER_PRESENT,
+                matcher.group(1),
+                matcher.group(2),
+                null,
+                null,
+                "==".equals(matcher.group(3))
+            );
+        }
+        matcher = HEADER_VALUE.matcher(text);
+        if (matcher.matches()) {
+            return new HeaderCondition(
+                expression,
+                Check.HEADER_EQUALS,
+                matcher.group(1),
+                matcher.group(2),
+                matcher.group(4),
+                null,
+                "!=".equals(matcher.group(3))
+            );
+        }
+        matcher = REQUEST_ATTRIBUTE.matcher(text);
+        if (matcher.matches()) {
+            return new HeaderCondition(
+                expression,
+                "method".equals(matcher.group(1)) ? Check.METHOD_EQUALS : Check.PATH_EQUALS,
+                null,
+                null,
+                matcher.group(3),
+                null,
+                "!=".equals(matcher.group(2))
+            );
+        }
+        matcher = PATH_MATCHES.matcher(text);
+        if (matcher.matches()) {
+            try {
+                return new HeaderCondition(expression, Check.PATH_MATCHES, null, null, null, Pattern.compile(matcher.group(1)), false);
+            } catch (PatternSyntaxException e) {
+                // Left to the template engine, which reports the invalid pattern when the condition is evaluated
+            }
+        }
+        return new HeaderCondition(expression, Check.EXPRESSION, null, null, null, null, false);
+    }
+
+    /**
+     * @return <code>true</code> when the condition is checked without the template engine whenever the headers, method and
+     * path it reads are available.
+     */
+    public boolean isDirect() {
+        return check != Check.EXPRESSION;
+    }
+
+    /**
+     * Evaluates the condition. Direct checks give an already terminated subject, without allocating; the other conditions,
+     * and the direct checks whose input is not available in the given context, are evaluated by the template engine.
+     *
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     */
+    public MaybeSubject<Boolean> evaluate(final TemplateEngine templateEngine, final HeaderConditionContext context) {
+        return evaluate(templateEngine, context, null);
+    }
+
+    /**
+     * Evaluates the condition, adding the evaluation by the template engine to the given ones while it is in progress.
+     *
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     * @param evaluations the evaluations in progress, <code>null</code> when the evaluation is not to be disposed.
+     */
+    public MaybeSubject<Boolean> evaluate(
+        final TemplateEngine templateEngine,
+        final HeaderConditionContext context,
+        final CompositeDisposable evaluations
+    ) {
+        final Boolean matches = test(context);
+        if (matches != null) {
+            return matches ? MATCHED : NOT_MATCHED;
+        }
+
+        final MaybeSubject<Boolean> result = MaybeSubject.create();
+        HeaderExpression.subscribe(templateEngine.eval(expression.getExpression(), Boolean.class), result, evaluations);
+        return result;
+    }
+
+    /**
+     * Checks the condition directly.
+     *
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     * @return whether the condition holds, or <code>null</code> when it has to be evaluated by the template engine.
+     */
+    public Boolean test(final HeaderConditionContext context) {
+        final Boolean matches = check(context);
+        return matches == null ? null : matches != negated;
+    }
+
+    /**
+     * @return the result of the direct check, before negation, or <code>null</code> when the condition has to be evaluated
+     * by the template engine.
+     */
+    private Boolean check(final HeaderConditionContext context) {
+        if (check == Check.CONSTANT) {
+            return true;
+        }
+        if (context == null) {
+            return null;
+        }
+
+        switch (check) {
+            case HEADER_PRESENT: {
+                final HttpHeaders headers = context.headers(variable);
+                return headers == null ? null : headers.contains(name);
+            }
+            case HEADER_EQUALS: {
+                final HttpHeaders headers = context.headers(variable);
+                return headers == null ? null : value.equals(headers.get(name));
+            }
+            case METHOD_EQUALS:
+                return context.getMethod() == null ? null : value.equals(context.getMethod().name());
+            case PATH_EQUALS:
+                return context.getPath() == null ? null : value.equals(context.getPath());
+            case PATH_MATCHES:
+                return context.getPath() == null ? null : pattern.matcher(context.getPath()).matches();
+            default:
+                return null;
+        }
+    }
+
+    private static MaybeSubject<Boolean> completed(final boolean value) {
+        final MaybeSubject<Boolean> subject = MaybeSubject.create();
+        subject.onSuccess(value);
+        return subject;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import lombok.Getter;
+
+/**
+ * What the direct checks of a {@link HeaderCondition} read, captured from the current request without going through the
+ * template engine. Any of them can be <code>null</code> when not available, the condition then being evaluated as an
+ * expression.
+ *
+ * @author GraviteeSource Team
+ */
+public final class HeaderConditionContext {
+
+    private final HttpHeaders requestHeaders;
+
+    private final HttpHeaders responseHeaders;
+
+    private final HttpHeaders messageHeaders;
+
+    @Getter
+    private final HttpMethod method;
+
+    @Getter
+    private final String path;
+
+    public HeaderConditionContext(
+        final HttpHeaders requestHeaders,
+        final HttpHeaders responseHeaders,
+        final HttpHeaders messageHeaders,
+        final HttpMethod method,
+        final String path
+    ) {
+        this.requestHeaders = requestHeaders;
+        this.responseHeaders = responseHeaders;
+        this.messageHeaders = messageHeaders;
+        this.method = method;
+        this.path = path;
+    }
+
+    /**
+     * @return the headers of the given template variable: <code>request</code>, <code>response</code> or
+     * <code>message</code>.
+     */
+    HttpHeaders headers(final String variable) {
+        switch (variable) {
+            case "request":
+                return requestHeaders;
+            case "response":
+                return responseHeaders;
+            case "message":
+                return messageHeaders;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import lombok.Getter;
+
+/**
+ * A validated copy or move of a header: both names are trimmed, not blank, and different ignoring case.
+ *
+ * @author GraviteeSource Team
+ */
+@Getter
+public final class HeaderCopy {
+
+    private final String source;
+
+    private final String target;
+
+    /**
+     * Whether the source header is removed once copied.
+     */
+    private final boolean move;
+
+    HeaderCopy(final String source, final String target, final boolean move) {
+        this.source = source;
+        this.target = target;
+        this.move = move;
+    }
+}
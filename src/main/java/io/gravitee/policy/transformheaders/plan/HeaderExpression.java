@@ -0,0 +1,338 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.Getter;
+
+/**
+ * A header value compiled once and shared by every rule, and every API, configured with the same text.
+ *
+ * <p>
+ * Parsing the expression itself is delegated to the template engine, which keeps the parsed form in its own bounded
+ * cache keyed by the expression text as long as it is evaluated through {@link TemplateEngine#eval(String, Class)}.
+ * This class only analyses the text: whether it contains an expression at all, and which template variables it reads.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+public final class HeaderExpression {
+
+    private static final int CACHE_MAX_SIZE = 1_000;
+
+    /**
+     * Same opening sequence as the one recognized by the template engine: <code>{#</code>, <code>{T(</code> or <code>{(</code>,
+     * optionally separated by spaces.
+     */
+    private static final Pattern EXPRESSION_PATTERN = Pattern.compile("\\{ *[#T(]");
+
+    /**
+     * Variable references, ignoring function calls such as <code>#jsonPath(...)</code>.
+     */
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("#([A-Za-z_]\\w*+)(?!\\s*\\()");
+
+    /**
+     * Type references, e.g. <code>T(java.util.UUID).randomUUID()</code>, and function calls, e.g. <code>#jsonPath(...)</code>,
+     * whose result may change on each evaluation.
+     */
+    private static final Pattern CALL_PATTERN = Pattern.compile("(?<![\\w.])T\\s*+\\(|#[A-Za-z_]\\w*+\\s*+\\(");
+
+    /**
+     * Variables having the same value for the whole connection, e.g. all the messages of a flow.
+     */
+    private static final Set<String> CONNECTION_VARIABLES = Set.of("request", "api", "properties", "dictionaries", "node");
+
+    /**
+     * Body references, e.g. <code>#request.content</code> or <code>#response['content']</code>.
+     */
+    private static final Pattern CONTENT_PATTERN = Pattern.compile("#(?:request|response)\\s*+(?:\\.\\s*+|\\[\\s*+')content\\b");
+
+    /**
+     * Header references, e.g. <code>#request.headers['X-Name']</code> or <code>#message.headers.keySet()</code>.
+     */
+    private static final Pattern HEADERS_PATTERN = Pattern.compile("#(?:request|response|message)\\s*+\\.\\s*+headers\\b");
+
+    /**
+     * Header references by a literal name, e.g. <code>#request.headers['X-Name']</code>.
+     */
+    private static final Pattern HEADER_NAME_PATTERN = Pattern.compile(
+        "#(?:request|response|message)\\s*+\\.\\s*+headers\\s*+\\[\\s*+'([^']+)'\\s*+]"
+    );
+
+    /**
+     * Indexed references to the request, response or message other than their body, e.g. <code>#request['headers']</code>,
+     * which may read any of their headers.
+     */
+    private static final Pattern INDEXED_PATTERN = Pattern.compile("#(?:request|response|message)\\s*+\\[(?!\\s*+'content')");
+
+    /**
+     * Plain read of the first value of a header, e.g. <code>{#request.headers['X-Name'][0]}</code>.
+     */
+    private static final Pattern HEADER_READ = Pattern.compile(
+        "\\{\\s*#(request|response)\\.headers\\s*\\[\\s*'([^']+)'\\s*]\\s*\\[\\s*0\\s*]\\s*}"
+    );
+
+    /**
+     * Plain read of the request method or path, e.g. <code>{#request.path}</code>.
+     */
+    private static final Pattern ATTRIBUTE_READ = Pattern.compile("\\{\\s*#request\\.(method|path)\\s*}");
+
+    /**
+     * Result of {@link #read(HeaderConditionContext)} when the header, method or path read is missing, compared by identity.
+     */
+    public static final String MISSING = new String("");
+
+    private static final Map<String, HeaderExpression> CACHE = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HeaderExpression> eldest) {
+                return size() > CACHE_MAX_SIZE;
+            }
+        }
+    );
+
+    @Getter
+    private final String expression;
+
+    @Getter
+    private final boolean literal;
+
+    private final Set<String> variables;
+
+    /**
+     * Lower-cased names of the headers read by their literal name, the other header reads being covered by
+     * {@link #readingAnyHeader}.
+     */
+    private final Set<String> headerNames;
+
+    /**
+     * Whether the expression may read headers whose name is not known before it is evaluated, e.g. iterating them.
+     */
+    private final boolean readingAnyHeader;
+
+    /**
+     * Whether the expression reads the request or response body, which must then be buffered before it is evaluated.
+     */
+    @Getter
+    private final boolean contentDependent;
+
+    /**
+     * Whether the expression only reads variables having the same value for the whole connection, so that its result can
+     * be reused instead of evaluating it again, e.g. for each message of a flow.
+     */
+    @Getter
+    private final boolean connectionScoped;
+
+    /**
+     * UTF-8 bytes of a literal value, encoded once and shared read-only by every {@link #toBuffer()}.
+     */
+    private final ByteBuf encoded;
+
+    /**
+     * Template variable whose header is read directly, <code>null</code> when the method or path is read or the expression
+     * is not a plain read.
+     */
+    private final String readVariable;
+
+    /**
+     * Name of the header read directly, or <code>method</code> or <code>path</code>, <code>null</code> when the expression
+     * is not a plain read.
+     */
+    private final String readName;
+
+    private HeaderExpression(final String expression) {
+        this.expression = expression;
+        this.literal = !EXPRESSION_PATTERN.matcher(expression).find();
+        this.variables = literal ? Set.of() : variables(expression);
+        this.headerNames = literal ? Set.of() : headerNames(expression);
+        this.readingAnyHeader = !literal && isReadingAnyHeader(expression, headerNames.size());
+        this.contentDependent = !literal && CONTENT_PATTERN.matcher(expression).find();
+        this.connectionScoped =
+            !literal &&
+            !variables.isEmpty() &&
+            CONNECTION_VARIABLES.containsAll(variables) &&
+            !CALL_PATTERN.matcher(expression).find();
+        this.encoded = literal
+            ? Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(expression.getBytes(StandardCharsets.UTF_8)).asReadOnly())
+            : null;
+
+        final Matcher header = HEADER_READ.matcher(expression);
+        final Matcher attribute = ATTRIBUTE_READ.matcher(expression);
+        if (header.matches()) {
+            this.readVariable = header.group(1);
+            this.readName = header.group(2);
+        } else if (attribute.matches()) {
+            this.readVariable = null;
+            this.readName = attribute.group(1);
+        } else {
+            this.readVariable = null;
+            this.readName = null;
+        }
+    }
+
+    public static HeaderExpression compile(final String expression) {
+        return CACHE.computeIfAbsent(expression, HeaderExpression::new);
+    }
+
+    /**
+     * @return <code>true</code> if the expression reads the given template variable, e.g. <code>request</code> for
+     * <code>{#request.headers['x-tenant'][0]}</code>.
+     */
+    public boolean references(final String variable) {
+        return variables.contains(variable);
+    }
+
+    /**
+     * @return <code>true</code> if the expression may read the header with the given name, ignoring case, from the
+     * request, the response or the message.
+     */
+    public boolean readsHeader(final String name) {
+        return readingAnyHeader || (!headerNames.isEmpty() && headerNames.contains(name.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * @return a buffer over the pre-encoded literal value. Buffers share the same read-only bytes but each one has its own
+     * indexes, so that reading one does not affect the others.
+     * @throws IllegalStateException if the value is not a literal.
+     */
+    public Buffer toBuffer() {
+        if (!literal) {
+            throw new IllegalStateException("Only literal values can be pre-encoded");
+        }
+        return Buffer.buffer(encoded.duplicate());
+    }
+
+    /**
+     * Evaluates the expression. The returned subject is already terminated when the evaluation completed synchronously,
+     * which lets callers apply the result inline instead of building a reactive chain.
+     */
+    public MaybeSubject<String> evaluate(final TemplateEngine templateEngine) {
+        return evaluate(templateEngine, null);
+    }
+
+    /**
+     * Evaluates the expression, adding the evaluation to the given ones while it is in progress so that it can be disposed
+     * along with them.
+     *
+     * @param evaluations the evaluations in progress, <code>null</code> when the evaluation is not to be disposed.
+     */
+    public MaybeSubject<String> evaluate(final TemplateEngine templateEngine, final CompositeDisposable evaluations) {
+        final MaybeSubject<String> value = MaybeSubject.create();
+        subscribe(templateEngine.eval(expression, String.class), value, evaluations);
+        return value;
+    }
+
+    /**
+     * Subscribes the subject to the given evaluation, which is added to the given ones while it is in progress.
+     *
+     * @param evaluations the evaluations in progress, <code>null</code> when the evaluation is not to be disposed.
+     */
+    static <T> void subscribe(final Maybe<T> evaluation, final MaybeSubject<T> subject, final CompositeDisposable evaluations) {
+        if (evaluations == null) {
+            evaluation.subscribe(subject);
+            return;
+        }
+        final Disposable disposable = evaluation.subscribe(subject::onSuccess, subject::onError, subject::onComplete);
+        if (!disposable.isDisposed()) {
+            evaluations.add(disposable);
+        }
+    }
+
+    /**
+     * @return <code>true</code> when the expression only reads the first value of a request or response header, the
+     * request method or the request path, so that it can be {@link #read(HeaderConditionContext) read} directly.
+     */
+    public boolean isDirectRead() {
+        return readName != null;
+    }
+
+    /**
+     * Reads the value without the template engine, nor the exception it raises when reading a missing header.
+     *
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     * @return the value, {@link #MISSING} when the header, method or path is missing, or <code>null</code> when the
+     * expression is not a plain read or what it reads is not available, in which case it has to be evaluated.
+     */
+    public String read(final HeaderConditionContext context) {
+        if (readName == null || context == null) {
+            return null;
+        }
+        if (readVariable != null) {
+            final HttpHeaders headers = context.headers(readVariable);
+            if (headers == null) {
+                return null;
+            }
+            final String value = headers.get(readName);
+            return value == null ? MISSING : value;
+        }
+        if ("method".equals(readName)) {
+            return context.getMethod() == null ? MISSING : context.getMethod().name();
+        }
+        return context.getPath() == null ? MISSING : context.getPath();
+    }
+
+    private static Set<String> headerNames(final String expression) {
+        final Set<String> names = new HashSet<>();
+        final Matcher matcher = HEADER_NAME_PATTERN.matcher(expression);
+        while (matcher.find()) {
+            names.add(matcher.group(1).trim().toLowerCase(Locale.ROOT));
+        }
+        return Set.copyOf(names);
+    }
+
+    private static boolean isReadingAnyHeader(final String expression, final int namedReads) {
+        if (INDEXED_PATTERN.matcher(expression).find()) {
+            return true;
+        }
+        final Matcher headers = HEADERS_PATTERN.matcher(expression);
+        final Matcher named = HEADER_NAME_PATTERN.matcher(expression);
+        int references = 0;
+        int namedReferences = 0;
+        while (headers.find()) {
+            references++;
+        }
+        while (named.find()) {
+            namedReferences++;
+        }
+        return references > namedReferences;
+    }
+
+    static Set<String> variables(final String expression) {
+        final Set<String> variables = new HashSet<>();
+        final Matcher matcher = VARIABLE_PATTERN.matcher(expression);
+        while (matcher.find()) {
+            variables.add(matcher.group(1));
+        }
+        return Set.copyOf(variables);
+    }
+}
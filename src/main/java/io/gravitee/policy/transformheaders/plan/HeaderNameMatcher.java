@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Case-insensitive matcher of header names, built once from the configured list of names and patterns.
+ *
+ * <p>
+ * Names are stored in an open-addressing hash table whose hash is computed over case-folded characters, so a lookup is a
+ * single probe sequence with no allocation, whatever the number of configured names. Names containing a <code>*</code>
+ * are patterns, compiled into {@link HeaderNamePatterns}.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+public final class HeaderNameMatcher {
+
+    private final String[] table;
+
+    private final int mask;
+
+    private final int size;
+
+    /**
+     * Matcher of the configured patterns, <code>null</code> when there is none.
+     */
+    private final HeaderNamePatterns patterns;
+
+    HeaderNameMatcher(final Collection<String> names) {
+        final List<String> exactNames = new ArrayList<>(names.size());
+        final List<String> patternNames = new ArrayList<>();
+        for (String name : names) {
+            (HeaderNamePatterns.isPattern(name) ? patternNames : exactNames).add(name);
+        }
+        this.patterns = patternNames.isEmpty() ? null : new HeaderNamePatterns(patternNames);
+
+        // Keep the load factor under 0.5 so that probe sequences stay short
+        final int capacity = Integer.highestOneBit(Math.max(exactNames.size(), 1) * 4 - 1);
+        this.table = new String[capacity];
+        this.mask = capacity - 1;
+
+        int count = 0;
+        for (String name : exactNames) {
+            final int index = indexOf(name);
+            if (table[index] == null) {
+                table[index] = name;
+                count++;
+            }
+        }
+        this.size = count;
+    }
+
+    public boolean matches(final String headerName) {
+        return headerName != null && ((size > 0 && table[indexOf(headerName)] != null) || matchesPattern(headerName));
+    }
+
+    /**
+     * @return whether the header name matches one of the configured patterns, ignoring the exact names.
+     */
+    public boolean matchesPattern(final String headerName) {
+        return headerName != null && patterns != null && patterns.matches(headerName);
+    }
+
+    public boolean hasPatterns() {
+        return patterns != null;
+    }
+
+    public boolean isEmpty() {
+        return size == 0 && patterns == null;
+    }
+
+    /**
+     * @return the index of the slot holding the given name, or of the empty slot where it would be stored.
+     */
+    private int indexOf(final String name) {
+        int index = hash(name) & mask;
+        String candidate;
+        while ((candidate = table[index]) != null) {
+            if (candidate.length() == name.length() && candidate.regionMatches(true, 0, name, 0, name.length())) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int hash(final String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + fold(name.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Folds the case the same way {@link String#equalsIgnoreCase(String)} compares characters, with a shortcut for ASCII.
+     */
+    static char fold(final char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Case-insensitive matcher of header name patterns, where <code>*</code> stands for any sequence of characters (e.g.
+ * <code>X-Internal-*</code>).
+ *
+ * <p>
+ * Patterns are compiled into a trie over case-folded characters, so that all of them are matched while reading the header
+ * name once. A trailing <code>*</code> matches as soon as its prefix has been read. When a <code>*</code> is followed by
+ * other characters, the trie is run as a non-deterministic automaton instead: all the nodes reachable by the characters
+ * read so far are tracked at once, so that matching stays linear in the length of the name rather than trying every
+ * possible remainder.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+final class HeaderNamePatterns {
+
+    private static final char WILDCARD = '*';
+
+    private final Node root = new Node();
+
+    /**
+     * Number of nodes of the trie, which bounds the number of nodes tracked at once.
+     */
+    private final int size;
+
+    /**
+     * Whether a pattern has a <code>*</code> followed by other characters.
+     */
+    private final boolean innerWildcards;
+
+    HeaderNamePatterns(final Collection<String> patterns) {
+        boolean innerWildcards = false;
+        for (String pattern : patterns) {
+            add(pattern);
+            final int wildcard = pattern.indexOf(WILDCARD);
+            innerWildcards |= wildcard >= 0 && !isTrailingWildcard(pattern, wildcard);
+        }
+        this.innerWildcards = innerWildcards;
+        this.size = number(root, 0);
+    }
+
+    static boolean isPattern(final String name) {
+        return name.indexOf(WILDCARD) >= 0;
+    }
+
+    boolean matches(final String headerName) {
+        return innerWildcards ? matchesAll(headerName) : matches(root, headerName);
+    }
+
+    private void add(final String pattern) {
+        Node node = root;
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c != WILDCARD) {
+                node = node.childOrCreate(HeaderNameMatcher.fold(c));
+            } else if (node.wildcard == null) {
+                node = node.wildcard = new Node();
+                node.loop = true;
+            } else {
+                node = node.wildcard;
+            }
+            // Consecutive wildcards are equivalent to a single one
+            while (c == WILDCARD && i + 1 < pattern.length() && pattern.charAt(i + 1) == WILDCARD) {
+                i++;
+            }
+        }
+        node.terminal = true;
+    }
+
+    private static boolean isTrailingWildcard(final String pattern, final int wildcard) {
+        for (int i = wildcard + 1; i < pattern.length(); i++) {
+            if (pattern.charAt(i) != WILDCARD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks the trie along the name, when all the wildcards are trailing ones.
+     */
+    private static boolean matches(Node node, final String name) {
+        for (int i = 0;; i++) {
+            if (node.wildcard != null && node.wildcard.terminal) {
+                return true;
+            }
+            if (i == name.length()) {
+                return node.terminal;
+            }
+            node = node.child(HeaderNameMatcher.fold(name.charAt(i)));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Runs the trie as a non-deterministic automaton, each node being tracked at most once per character read.
+     */
+    private boolean matchesAll(final String name) {
+        Node[] active = new Node[size];
+        Node[] next = new Node[size];
+        final boolean[] tracked = new boolean[size];
+        int count = track(root, active, 0, tracked);
+        for (int i = 0; i < name.length(); i++) {
+            final char c = HeaderNameMatcher.fold(name.charAt(i));
+            int nextCount = 0;
+            for (int k = 0; k < count; k++) {
+                final Node node = active[k];
+                if (node.loop && node.terminal) {
+                    return true;
+                }
+                tracked[node.number] = false;
+            }
+            for (int k = 0; k < count; k++) {
+                final Node node = active[k];
+                if (node.loop) {
+                    nextCount = track(node, next, nextCount, tracked);
+                }
+                final Node child = node.child(c);
+                if (child != null) {
+                    nextCount = track(child, next, nextCount, tracked);
+                }
+            }
+            if (nextCount == 0) {
+                return false;
+            }
+            final Node[] swap = active;
+            active = next;
+            next = swap;
+            count = nextCount;
+        }
+        for (int k = 0; k < count; k++) {
+            if (active[k].terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the node to the given ones, unless it is already tracked, along with the node reached by its wildcard, which
+     * also matches an empty sequence.
+     *
+     * @return the new number of nodes.
+     */
+    private static int track(final Node node, final Node[] nodes, int count, final boolean[] tracked) {
+        if (!tracked[node.number]) {
+            tracked[node.number] = true;
+            nodes[count++] = node;
+            if (node.wildcard != null) {
+                count = track(node.wildcard, nodes, count, tracked);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Numbers the nodes of the sub-trie, starting from the given number.
+     *
+     * @return the next number.
+     */
+    private static int number(final Node node, int next) {
+        node.number = next++;
+        for (Node child : node.children) {
+            next = number(child, next);
+        }
+        return node.wildcard == null ? next : number(node.wildcard, next);
+    }
+
+    private static final class Node {
+
+        private static final char[] NO_LABELS = new char[0];
+
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        /**
+         * Case-folded characters leading to {@link #children}, at the same indexes.
+         */
+        private char[] labels = NO_LABELS;
+
+        private Node[] children = NO_CHILDREN;
+
+        /**
+         * Node reached by a <code>*</code>, <code>null</code> when no pattern has one at this position.
+         */
+        private Node wildcard;
+
+        /**
+         * Whether a pattern ends at this node.
+         */
+        private boolean terminal;
+
+        /**
+         * Whether the node is reached by a <code>*</code>, which keeps matching any character.
+         */
+        private boolean loop;
+
+        /**
+         * Index of the node in the trie.
+         */
+        private int number;
+
+        private Node child(final char label) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == label) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node childOrCreate(final char label) {
+            Node child = child(label);
+            if (child == null) {
+                child = new Node();
+                labels = Arrays.copyOf(labels, labels.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                labels[labels.length - 1] = label;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.Getter;
+
+/**
+ * Evaluation of a header value moved off the event loop, to the bounded worker pool of Vert.x, and bounded in time.
+ *
+ * <p>
+ * The evaluation is started from a worker thread, and its result handed back on the context, i.e. the event loop, it was
+ * requested from. A timer started on that same context completes the value with the fallback, or without any value, once
+ * the timeout has elapsed; the result of the evaluation is then ignored. Whichever comes first wins, so that the value is
+ * only completed once.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+final class HeaderOffload {
+
+    static final long DEFAULT_TIMEOUT_MILLIS = 1_000;
+
+    @Getter
+    private final long timeoutMillis;
+
+    /**
+     * Value used when the evaluation times out, the header being skipped when <code>null</code>.
+     */
+    @Getter
+    private final String fallback;
+
+    private HeaderOffload(final long timeoutMillis, final String fallback) {
+        this.timeoutMillis = timeoutMillis;
+        this.fallback = fallback;
+    }
+
+    /**
+     * @return the offloading of the given value, or <code>null</code> when it is evaluated on the event loop, either
+     * because it is not requested or because the value is a literal.
+     */
+    static HeaderOffload compile(
+        final HeaderExpression value,
+        final boolean offloaded,
+        final Integer timeoutMillis,
+        final String fallback
+    ) {
+        if (!offloaded || value.isLiteral()) {
+            return null;
+        }
+        return new HeaderOffload(timeoutMillis == null || timeoutMillis <= 0 ? DEFAULT_TIMEOUT_MILLIS : timeoutMillis, fallback);
+    }
+
+    /**
+     * @param onValue called on the requesting context with the value evaluated in time, before it is handed back, and never
+     * with a value coming after the timeout; <code>null</code> when not needed.
+     */
+    MaybeSubject<String> evaluate(final Vertx vertx, final Supplier<MaybeSubject<String>> evaluation, final Consumer<String> onValue) {
+        final MaybeSubject<String> result = MaybeSubject.create();
+        final AtomicBoolean completed = new AtomicBoolean();
+        final Context context = vertx.getOrCreateContext();
+        final long timer = vertx.setTimer(timeoutMillis, id -> {
+            if (completed.compareAndSet(false, true)) {
+                if (fallback == null) {
+                    result.onComplete();
+                } else {
+                    result.onSuccess(fallback);
+                }
+            }
+        });
+
+        final Completion completion = new Completion(vertx, context, timer, completed);
+        vertx
+            .executeBlocking(
+                () -> {
+                    evaluation
+                        .get()
+                        .subscribe(
+                            value ->
+                                completion.complete(() -> {
+                                    if (onValue != null) {
+                                        onValue.accept(value);
+                                    }
+                                    result.onSuccess(value);
+                                }),
+                            throwable -> completion.complete(() -> result.onError(throwable)),
+                            () -> completion.complete(result::onComplete)
+                        );
+                    return null;
+                },
+                false
+            )
+            .onFailure(throwable -> completion.complete(() -> result.onError(throwable)));
+        return result;
+    }
+
+    private static final class Completion {
+
+        private final Vertx vertx;
+
+        private final Context context;
+
+        private final long timer;
+
+        private final AtomicBoolean completed;
+
+        private Completion(final Vertx vertx, final Context context, final long timer, final AtomicBoolean completed) {
+            this.vertx = vertx;
+            this.context = context;
+            this.timer = timer;
+            this.completed = completed;
+        }
+
+        /**
+         * Runs the completion on the requesting context, unless the timeout has already completed the value.
+         */
+        private void complete(final Runnable completion) {
+            context.runOnContext(ignored -> {
+                if (completed.compareAndSet(false, true)) {
+                    vertx.cancelTimer(timer);
+                    completion.run();
+                }
+            });
+        }
+    }
+}
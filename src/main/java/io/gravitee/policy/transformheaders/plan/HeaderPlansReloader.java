@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds the {@link HeaderTransformationPlans} of a policy, and replaces them when the rules are reloaded from a gateway
+ * dictionary, so that changing a rule does not require to redeploy the API. Rules are never read from the file system of
+ * the gateway, which an API configuration must not reach.
+ *
+ * <p>
+ * Reading the plans is a single volatile read, without any lock: a request reads them once and keeps using the same
+ * snapshot, while the next ones see the reloaded plans as soon as they are published. The source is only checked by the
+ * request winning the race once the reload interval has elapsed: the dictionary is a lookup in memory, and its value is
+ * only parsed when it changed.
+ * Rules that cannot be read or compiled are ignored with a warning, the current plans being kept.
+ * </p>
+ *
+ * <p>
+ * The reloaded JSON has the same shape as the configuration of the policy, of which only the rules are used: the scope
+ * and the other settings are the deployed ones.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+public final class HeaderPlansReloader {
+
+    static final long DEFAULT_RELOAD_INTERVAL_SECONDS = 10;
+
+    private static final String DICTIONARIES_VARIABLE = "dictionaries";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final TransformHeadersPolicyConfiguration configuration;
+
+    private final AtomicReference<HeaderTransformationPlans> plans;
+
+    private final String dictionary;
+
+    private final String dictionaryKey;
+
+    private final long reloadIntervalNanos;
+
+    /**
+     * Time at which the source is checked again, <code>null</code> when the rules are not reloaded.
+     */
+    private final AtomicLong nextReloadAt;
+
+    private volatile String dictionaryValue;
+
+    public HeaderPlansReloader(final TransformHeadersPolicyConfiguration configuration) {
+        this(configuration, reloadIntervalNanos(configuration.getRulesReloadInterval()));
+    }
+
+    HeaderPlansReloader(final TransformHeadersPolicyConfiguration configuration, final long reloadIntervalNanos) {
+        this.configuration = configuration;
+        this.plans = new AtomicReference<>(HeaderTransformationPlans.compile(configuration));
+        this.dictionary = isSet(configuration.getRulesDictionary()) && isSet(configuration.getRulesDictionaryKey())
+            ? configuration.getRulesDictionary().trim()
+            : null;
+        this.dictionaryKey = dictionary == null ? null : configuration.getRulesDictionaryKey().trim();
+        this.reloadIntervalNanos = reloadIntervalNanos;
+        // Dictionaries are only reachable from a request, the first one loads the rules
+        this.nextReloadAt = dictionary == null ? null : new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return the current plans.
+     */
+    public HeaderTransformationPlans current() {
+        return plans.get();
+    }
+
+    /**
+     * @return whether the source of the rules is to be checked, in which case {@link #reload(TemplateEngine)} should
+     * be called instead of {@link #current()}.
+     */
+    public boolean isReloadDue() {
+        return nextReloadAt != null && System.nanoTime() - nextReloadAt.get() >= 0;
+    }
+
+    /**
+     * Checks the source of the rules, unless another request is already checking it.
+     *
+     * @param templateEngine template engine of the request, to look the dictionary up.
+     * @return the current plans, already reloaded.
+     */
+    public HeaderTransformationPlans reload(final TemplateEngine templateEngine) {
+        final long reloadAt = nextReloadAt.get();
+        final long now = System.nanoTime();
+        if (now - reloadAt >= 0 && nextReloadAt.compareAndSet(reloadAt, now + reloadIntervalNanos)) {
+            reloadDictionary(templateEngine);
+        }
+        return plans.get();
+    }
+
+    private void reloadDictionary(final TemplateEngine templateEngine) {
+        final String value = dictionaryValue(templateEngine);
+        if (value == null || value.equals(dictionaryValue)) {
+            return;
+        }
+        dictionaryValue = value;
+
+        try {
+            load(MAPPER.readValue(value, TransformHeadersPolicyConfiguration.class), dictionary + "/" + dictionaryKey);
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Header rules of dictionary {} are invalid, the current ones are kept: {}", dictionary, ex.getMessage());
+        }
+    }
+
+    private String dictionaryValue(final TemplateEngine templateEngine) {
+        if (templateEngine == null) {
+            return null;
+        }
+
+        final Object dictionaries = templateEngine.getTemplateContext().lookupVariable(DICTIONARIES_VARIABLE);
+        if (!(dictionaries instanceof Map)) {
+            return null;
+        }
+        final Object entries = ((Map<?, ?>) dictionaries).get(dictionary);
+        if (!(entries instanceof Map)) {
+            return null;
+        }
+        final Object value = ((Map<?, ?>) entries).get(dictionaryKey);
+        return value instanceof String ? (String) value : null;
+    }
+
+    private void load(final TransformHeadersPolicyConfiguration rules, final String source) {
+        plans.set(HeaderTransformationPlans.compile(configuration, rules));
+        log.info("Header rules reloaded from {}", source);
+    }
+
+    private static long reloadIntervalNanos(final Integer reloadInterval) {
+        return TimeUnit.SECONDS.toNanos(reloadInterval == null || reloadInterval <= 0 ? DEFAULT_RELOAD_INTERVAL_SECONDS : reloadInterval);
+    }
+
+    private static boolean isSet(final String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.transformheaders.configuration.HttpHeader;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.vertx.core.Vertx;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * A validated header rule: the name is trimmed and guaranteed not to be blank, the value is never <code>null</code>.
+ *
+ * @author GraviteeSource Team
+ */
+@Getter
+public final class HeaderRule {
+
+    private final String name;
+
+    private final HeaderExpression value;
+
+    /**
+     * Condition deciding whether the rule applies, <code>null</code> when it always does.
+     */
+    private final HeaderCondition condition;
+
+    /**
+     * Results of the value, <code>null</code> when it is evaluated every time.
+     */
+    private final HeaderValueCache cache;
+
+    /**
+     * Evaluation off the event loop, <code>null</code> when the value is evaluated on the event loop.
+     */
+    @Getter(AccessLevel.NONE)
+    private final HeaderOffload offload;
+
+    /**
+     * Index of the last previous rule of the same list writing a header that the value or the condition reads,
+     * <code>-1</code> when none does. When the rules are evaluated concurrently, the rule is only evaluated once that one
+     * has been applied.
+     */
+    private final int dependency;
+
+    HeaderRule(final String name, final String value) {
+        this(name, value, null);
+    }
+
+    HeaderRule(final String name, final String value, final String condition) {
+        this(name, value, condition, List.of());
+    }
+
+    /**
+     * @param previous the rules applied before this one in the same list.
+     */
+    HeaderRule(final String name, final String value, final String condition, final List<HeaderRule> previous) {
+        this(name, value, condition, null, 0, false, null, null, previous);
+    }
+
+    HeaderRule(final String name, final String value, final String condition, final Integer cacheTtl, final int cacheMaxSize) {
+        this(name, value, condition, cacheTtl, cacheMaxSize, false, null, null, List.of());
+    }
+
+    HeaderRule(final HttpHeader header, final int cacheMaxSize) {
+        this(header, cacheMaxSize, List.of());
+    }
+
+    /**
+     * @param previous the rules applied before this one in the same list.
+     */
+    HeaderRule(final HttpHeader header, final int cacheMaxSize, final List<HeaderRule> previous) {
+        this(
+            header.getName().trim(),
+            header.getValue(),
+            header.getCondition(),
+            header.getCacheTtl(),
+            cacheMaxSize,
+            header.isOffloaded(),
+            header.getTimeout(),
+            header.getFallbackValue(),
+            previous
+        );
+    }
+
+    private HeaderRule(
+        final String name,
+        final String value,
+        final String condition,
+        final Integer cacheTtl,
+        final int cacheMaxSize,
+        final boolean offloaded,
+        final Integer timeout,
+        final String fallback,
+        final List<HeaderRule> previous
+    ) {
+        this.name = name;
+        this.value = HeaderExpression.compile(value);
+        this.condition = HeaderCondition.compile(condition);
+        this.cache = HeaderValueCache.compile(this.value, cacheTtl, cacheMaxSize);
+        this.offload = HeaderOffload.compile(this.value, offloaded, timeout, fallback);
+        this.dependency = dependency(previous);
+    }
+
+    /**
+     * Evaluates the value on the current thread, reusing the result kept in its cache, if any, for the same request
+     * headers, method and path.
+     *
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     * @see HeaderExpression#evaluate(TemplateEngine)
+     */
+    public MaybeSubject<String> evaluate(final TemplateEngine templateEngine, final HeaderConditionContext context) {
+        return evaluate(templateEngine, context, null);
+    }
+
+    /**
+     * Evaluates the value, reusing the result kept in its cache, if any, for the same request headers, method and path.
+     * When the rule is offloaded, the value is evaluated on a worker thread and bounded in time; the result of a timed out
+     * evaluation is neither applied nor cached.
+     *
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     * @param vertx used to offload the evaluation, which happens on the current thread when <code>null</code>.
+     */
+    public MaybeSubject<String> evaluate(final TemplateEngine templateEngine, final HeaderConditionContext context, final Vertx vertx) {
+        return evaluate(templateEngine, context, vertx, null);
+    }
+
+    /**
+     * Evaluates the value like {@link #evaluate(TemplateEngine, HeaderConditionContext, Vertx)}, adding the evaluation to
+     * the given ones while it is in progress so that it can be disposed along with them.
+     *
+     * @param evaluations the evaluations in progress, <code>null</code> when the evaluation is not to be disposed.
+     */
+    public MaybeSubject<String> evaluate(
+        final TemplateEngine templateEngine,
+        final HeaderConditionContext context,
+        final Vertx vertx,
+        final CompositeDisposable evaluations
+    ) {
+        final Object key = cache == null ? null : cache.key(context);
+        if (key != null) {
+            final String cached = cache.get(key);
+            if (cached != null) {
+                final MaybeSubject<String> result = MaybeSubject.create();
+                result.onSuccess(cached);
+                return result;
+            }
+        }
+
+        if (offload != null && vertx != null) {
+            // Only the value handed back before the timeout is cached, never the one of a late evaluation
+            return offload.evaluate(
+                vertx,
+                () -> value.evaluate(templateEngine, evaluations),
+                key == null ? null : newValue -> cache.put(key, newValue)
+            );
+        }
+        return evaluateAndCache(templateEngine, key, evaluations);
+    }
+
+    private MaybeSubject<String> evaluateAndCache(
+        final TemplateEngine templateEngine,
+        final Object key,
+        final CompositeDisposable evaluations
+    ) {
+        final MaybeSubject<String> result = value.evaluate(templateEngine, evaluations);
+        if (key != null) {
+            if (result.hasValue()) {
+                cache.put(key, result.getValue());
+            } else if (!result.hasThrowable() && !result.hasComplete()) {
+                result.subscribe(newValue -> cache.put(key, newValue), throwable -> {});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     * @return whether the value is looked up in its cache for the given request, i.e. it is cached and what it reads
+     * from the request is available.
+     */
+    public boolean isCacheable(final HeaderConditionContext context) {
+        return cache != null && cache.key(context) != null;
+    }
+
+    /**
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     * @return whether the cache of the value holds a result for the given request, which
+     * {@link #evaluate(TemplateEngine, HeaderConditionContext)} then returns without evaluating the value.
+     */
+    public boolean isCached(final HeaderConditionContext context) {
+        final Object key = cache == null ? null : cache.key(context);
+        return key != null && cache.contains(key);
+    }
+
+    /**
+     * @return <code>true</code> when the value or the condition may read the header with the given name.
+     */
+    public boolean readsHeader(final String headerName) {
+        return value.readsHeader(headerName) || (condition != null && condition.getExpression().readsHeader(headerName));
+    }
+
+    private int dependency(final List<HeaderRule> previous) {
+        for (int index = previous.size() - 1; index >= 0; index--) {
+            if (readsHeader(previous.get(index).getName())) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether the value is evaluated off the event loop.
+     */
+    public boolean isOffloaded() {
+        return offload != null;
+    }
+
+    /**
+     * @return whether the cache key of the value is read from the request, which must then be captured in a
+     * {@link HeaderConditionContext}.
+     */
+    boolean isCachedByRequest() {
+        return cache != null && cache.key(null) == null;
+    }
+
+    /**
+     * @return <code>true</code> when the value does not contain any expression and can be applied as is, without going
+     * through the template engine.
+     */
+    public boolean isLiteral() {
+        return value.isLiteral();
+    }
+
+    /**
+     * @return <code>true</code> when the value or the condition reads the request or response body.
+     */
+    public boolean isContentDependent() {
+        return value.isContentDependent() || (condition != null && condition.getExpression().isContentDependent());
+    }
+
+    /**
+     * @return <code>true</code> when the value is an expression only reading the request, the API, its properties, the
+     * dictionaries or the node, without any type reference or function call, so that it gives the same result for every
+     * message of a flow.
+     */
+    public boolean isMessageInvariant() {
+        return value.isConnectionScoped();
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.gravitee.policy.transformheaders.configuration.BodyHeader;
+import io.gravitee.policy.transformheaders.configuration.EvaluationStrategy;
+import io.gravitee.policy.transformheaders.configuration.HeaderOperation;
+import io.gravitee.policy.transformheaders.configuration.HeaderOperationType;
+import io.gravitee.policy.transformheaders.configuration.HeaderRemoval;
+import io.gravitee.policy.transformheaders.configuration.HeaderRuleSet;
+import io.gravitee.policy.transformheaders.configuration.HttpHeader;
+import io.gravitee.policy.transformheaders.configuration.PolicyScope;
+import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Immutable view of a {@link TransformHeadersPolicyConfiguration}, compiled once when the policy is instantiated so that
+ * the request path does not have to validate, trim or copy the configured lists again.
+ *
+ * @author GraviteeSource Team
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class HeaderTransformationPlan {
+
+    private static final int DEFAULT_CACHE_MAX_SIZE = 1_000;
+
+    private static final int DEFAULT_MAX_CONCURRENT_EVALUATIONS = 4;
+
+    private final PolicyScope scope;
+
+    private final List<HeaderCopy> copyHeaders;
+
+    private final List<HeaderRule> addHeaders;
+
+    private final List<HeaderRule> appendHeaders;
+
+    /**
+     * Exact names of the headers to remove, without the patterns.
+     */
+    private final Set<String> removeHeaders;
+
+    /**
+     * Case-insensitive matcher of the names and patterns of the headers to remove, used when the headers are filtered in a
+     * single pass.
+     */
+    private final HeaderNameMatcher removeMatcher;
+
+    /**
+     * Headers removed when their condition holds, before {@link #removeHeaders}. Their value is always empty.
+     */
+    private final List<HeaderRule> conditionalRemoveHeaders;
+
+    /**
+     * Headers set from the values read from the body by the content scopes, after the set rules.
+     */
+    private final List<BodyHeaderRule> bodyHeaders;
+
+    /**
+     * Matcher of the headers to keep, <code>null</code> when no whitelist is configured.
+     */
+    private final HeaderNameMatcher whitelist;
+
+    /**
+     * Whether at least one rule has a condition, in which case a {@link HeaderConditionContext} is captured for each
+     * transformation.
+     */
+    private final boolean conditional;
+
+    /**
+     * Whether at least one value is cached by request headers, method or path, in which case a
+     * {@link HeaderConditionContext} is captured for each transformation too.
+     */
+    private final boolean cachedByRequest;
+
+    /**
+     * Whether at least one value only reads a header, the method or the path, which V3 APIs read directly from a
+     * {@link HeaderConditionContext} instead of going through the template engine.
+     */
+    private final boolean directlyReadable;
+
+    /**
+     * Whether at least one rule reads the body, in which case the content scopes have to buffer it.
+     */
+    private final boolean contentDependent;
+
+    /**
+     * Whether all the values are literals and no rule has a condition, in which case the transformation never waits for an
+     * expression.
+     */
+    private final boolean synchronous;
+
+    /**
+     * Whether at least one rule reads the <code>message</code> variable or has a condition, and so needs the template
+     * engine of each message.
+     */
+    private final boolean messageDependent;
+
+    /**
+     * Maximum number of bytes buffered by the content scopes, <code>0</code> when unlimited.
+     */
+    private final int maxContentSize;
+
+    /**
+     * Whether the transformations are reported as additional metrics of the request.
+     */
+    private final boolean reportMetrics;
+
+    /**
+     * Maximum number of rules of a list evaluated at once, <code>1</code> when each rule is evaluated once the previous one
+     * has been applied.
+     */
+    private final int evaluationConcurrency;
+
+    /**
+     * Whether at least one value is evaluated off the event loop.
+     */
+    private final boolean offloading;
+
+    public static HeaderTransformationPlan compile(final TransformHeadersPolicyConfiguration configuration) {
+        return compile(configuration, configuration, configuration.getBodyHeaders());
+    }
+
+    /**
+     * Compiles the given rules, the other settings being read from the configuration.
+     */
+    public static HeaderTransformationPlan compile(final TransformHeadersPolicyConfiguration configuration, final HeaderRuleSet rules) {
+        return compile(configuration, rules, null);
+    }
+
+    /**
+     * Compiles the given rules and headers read from the body, the other settings being read from the configuration.
+     */
+    public static HeaderTransformationPlan compile(
+        final TransformHeadersPolicyConfiguration configuration,
+        final HeaderRuleSet rules,
+        final List<BodyHeader> bodyHeaders
+    ) {
+        final Collection<String> removeHeaders = validNames(rules.getRemoveHeaders());
+        final Collection<String> whitelistHeaders = validNames(rules.getWhitelistHeaders());
+        final int cacheMaxSize = configuration.getCacheMaxSize() == null ? DEFAULT_CACHE_MAX_SIZE : configuration.getCacheMaxSize();
+        final List<HeaderRule> addHeaders = compileRules(rules.getAddHeaders(), cacheMaxSize);
+        final List<HeaderRule> appendHeaders = compileRules(rules.getAppendHeaders(), cacheMaxSize);
+        final List<HeaderRule> conditionalRemoveHeaders = compileRemovals(rules.getConditionalRemoveHeaders());
+        final Integer maxContentSize = configuration.getMaxContentSize();
+
+        return new HeaderTransformationPlan(
+            configuration.getScope() == null ? PolicyScope.REQUEST : configuration.getScope(),
+            compileCopies(rules.getHeaderOperations()),
+            addHeaders,
+            appendHeaders,
+            exactNames(removeHeaders),
+            new HeaderNameMatcher(removeHeaders),
+            conditionalRemoveHeaders,
+            compileBodyHeaders(bodyHeaders),
+            whitelistHeaders.isEmpty() ? null : new HeaderNameMatcher(whitelistHeaders),
+            isConditional(addHeaders) || isConditional(appendHeaders) || isConditional(conditionalRemoveHeaders),
+            isCachedByRequest(addHeaders) || isCachedByRequest(appendHeaders),
+            isDirectlyReadable(addHeaders) || isDirectlyReadable(appendHeaders),
+            isContentDependent(addHeaders) || isContentDependent(appendHeaders) || isContentDependent(conditionalRemoveHeaders),
+            isLiteral(addHeaders) && isLiteral(appendHeaders) && conditionalRemoveHeaders.isEmpty(),
+            isMessageDependent(addHeaders) || isMessageDependent(appendHeaders) || !conditionalRemoveHeaders.isEmpty(),
+            maxContentSize == null || maxContentSize < 0 ? 0 : maxContentSize,
+            configuration.isReportMetrics(),
+            evaluationConcurrency(configuration),
+            isOffloading(addHeaders) || isOffloading(appendHeaders)
+        );
+    }
+
+    /**
+     * @return <code>true</code> when the plan does not change any header, so that the phase can be skipped altogether.
+     */
+    public boolean isEmpty() {
+        return (
+            copyHeaders.isEmpty() &&
+            addHeaders.isEmpty() &&
+            appendHeaders.isEmpty() &&
+            removeMatcher.isEmpty() &&
+            conditionalRemoveHeaders.isEmpty() &&
+            whitelist == null
+        );
+    }
+
+    /**
+     * @return whether the headers, method and path of the request are captured for each transformation, to check the
+     * conditions directly or to look up the cached values.
+     */
+    public boolean isCapturingContext() {
+        return conditional || cachedByRequest;
+    }
+
+    public boolean hasWhitelist() {
+        return whitelist != null;
+    }
+
+    /**
+     * @return whether each header has to be matched against the whitelist or the removal patterns, rather than only
+     * removing the configured names.
+     */
+    public boolean isFilteringEachHeader() {
+        return whitelist != null || removeMatcher.hasPatterns();
+    }
+
+    private static int evaluationConcurrency(final TransformHeadersPolicyConfiguration configuration) {
+        if (configuration.getEvaluationStrategy() == EvaluationStrategy.PARALLEL) {
+            return Integer.MAX_VALUE;
+        }
+        if (configuration.getEvaluationStrategy() == EvaluationStrategy.BOUNDED_PARALLEL) {
+            final Integer maxConcurrentEvaluations = configuration.getMaxConcurrentEvaluations();
+            return maxConcurrentEvaluations == null ? DEFAULT_MAX_CONCURRENT_EVALUATIONS : Math.max(1, maxConcurrentEvaluations);
+        }
+        return 1;
+    }
+
+    private static List<HeaderRule> compileRules(final List<HttpHeader> headers, final int cacheMaxSize) {
+        if (headers == null) {
+            return List.of();
+        }
+
+        final List<HeaderRule> rules = new ArrayList<>(headers.size());
+        for (HttpHeader header : headers) {
+            if (header != null && isValidName(header.getName()) && header.getValue() != null) {
+                rules.add(new HeaderRule(header, cacheMaxSize, rules));
+            }
+        }
+        return List.copyOf(rules);
+    }
+
+    private static List<HeaderRule> compileRemovals(final List<HeaderRemoval> removals) {
+        if (removals == null) {
+            return List.of();
+        }
+
+        final List<HeaderRule> rules = new ArrayList<>(removals.size());
+        for (HeaderRemoval removal : removals) {
+            if (removal != null && isValidName(removal.getName())) {
+                rules.add(new HeaderRule(removal.getName().trim(), "", removal.getCondition(), rules));
+            }
+        }
+        return List.copyOf(rules);
+    }
+
+    private static List<BodyHeaderRule> compileBodyHeaders(final List<BodyHeader> headers) {
+        if (headers == null) {
+            return List.of();
+        }
+
+        final List<BodyHeaderRule> rules = new ArrayList<>(headers.size());
+        for (BodyHeader header : headers) {
+            if (header != null && isValidName(header.getName()) && header.getPointer() != null) {
+                final BodyHeaderRule rule = BodyHeaderRule.compile(header);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+        }
+        return List.copyOf(rules);
+    }
+
+    private static List<HeaderCopy> compileCopies(final List<HeaderOperation> operations) {
+        if (operations == null) {
+            return List.of();
+        }
+
+        final List<HeaderCopy> copies = new ArrayList<>(operations.size());
+        for (HeaderOperation operation : operations) {
+            if (
+                operation != null &&
+                isValidName(operation.getSource()) &&
+                isValidName(operation.getTarget()) &&
+                !operation.getSource().trim().equalsIgnoreCase(operation.getTarget().trim())
+            ) {
+                copies.add(
+                    new HeaderCopy(
+                        operation.getSource().trim(),
+                        operation.getTarget().trim(),
+                        operation.getOperation() == HeaderOperationType.MOVE
+                    )
+                );
+            }
+        }
+        return List.copyOf(copies);
+    }
+
+    private static boolean isLiteral(final List<HeaderRule> rules) {
+        for (HeaderRule rule : rules) {
+            if (!rule.isLiteral() || rule.getCondition() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isConditional(final List<HeaderRule> rules) {
+        for (HeaderRule rule : rules) {
+            if (rule.getCondition() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCachedByRequest(final List<HeaderRule> rules) {
+        for (HeaderRule rule : rules) {
+            if (rule.isCachedByRequest()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOffloading(final List<HeaderRule> rules) {
+        for (HeaderRule rule : rules) {
+            if (rule.isOffloaded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDirectlyReadable(final List<HeaderRule> rules) {
+        for (HeaderRule rule : rules) {
+            if (rule.getValue().isDirectRead()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isContentDependent(final List<HeaderRule> rules) {
+        for (HeaderRule rule : rules) {
+            if (rule.isContentDependent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isMessageDependent(final List<HeaderRule> rules) {
+        for (HeaderRule rule : rules) {
+            if (rule.getCondition() != null || (!rule.isLiteral() && !rule.isMessageInvariant())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> exactNames(final Collection<String> names) {
+        final Set<String> exactNames = new LinkedHashSet<>();
+        for (String name : names) {
+            if (!HeaderNamePatterns.isPattern(name)) {
+                exactNames.add(name);
+            }
+        }
+        return Set.copyOf(exactNames);
+    }
+
+    private static Collection<String> validNames(final List<String> names) {
+        if (names == null) {
+            return List.of();
+        }
+
+        final Set<String> validNames = new LinkedHashSet<>();
+        for (String name : names) {
+            if (isValidName(name)) {
+                validNames.add(name.trim());
+            }
+        }
+        return validNames;
+    }
+
+    private static boolean isValidName(final String name) {
+        return name != null && !name.trim().isEmpty();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.gravitee.policy.transformheaders.configuration.HeaderRuleSet;
+import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Immutable snapshot of the plans of every phase, compiled together so that a reload replaces all of them at once.
+ *
+ * @author GraviteeSource Team
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class HeaderTransformationPlans {
+
+    /**
+     * Plan of the common rules, used by V3 APIs and by the phases without their own rules.
+     */
+    private final HeaderTransformationPlan plan;
+
+    private final HeaderTransformationPlan requestPlan;
+
+    private final HeaderTransformationPlan responsePlan;
+
+    private final HeaderTransformationPlan messageRequestPlan;
+
+    private final HeaderTransformationPlan messageResponsePlan;
+
+    public static HeaderTransformationPlans compile(final TransformHeadersPolicyConfiguration configuration) {
+        return compile(configuration, configuration);
+    }
+
+    /**
+     * Compiles the rules of the given configuration, the other settings being read from the deployed one.
+     */
+    public static HeaderTransformationPlans compile(
+        final TransformHeadersPolicyConfiguration configuration,
+        final TransformHeadersPolicyConfiguration rules
+    ) {
+        final HeaderTransformationPlan plan = HeaderTransformationPlan.compile(configuration, rules, rules.getBodyHeaders());
+        return new HeaderTransformationPlans(
+            plan,
+            phasePlan(configuration, plan, rules.getRequest()),
+            phasePlan(configuration, plan, rules.getResponse()),
+            phasePlan(configuration, plan, rules.getMessageRequest()),
+            phasePlan(configuration, plan, rules.getMessageResponse())
+        );
+    }
+
+    private static HeaderTransformationPlan phasePlan(
+        final TransformHeadersPolicyConfiguration configuration,
+        final HeaderTransformationPlan plan,
+        final HeaderRuleSet rules
+    ) {
+        return rules == null ? plan : HeaderTransformationPlan.compile(configuration, rules);
+    }
+}
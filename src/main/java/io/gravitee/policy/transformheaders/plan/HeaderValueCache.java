@@ -0,0 +1,272 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import io.gravitee.gateway.api.http.HttpHeaders;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Results of a header value expression, kept for a limited time and keyed on what the expression reads from the request.
+ *
+ * <p>
+ * Only expressions whose result depends on nothing but request headers, the request method and path, and the variables
+ * shared by every request (<code>#api</code>, <code>#properties</code>, <code>#dictionaries</code> and <code>#node</code>)
+ * can be cached: the key is made of the values of the headers and attributes the expression reads, e.g.
+ * <code>x-key</code> for <code>{#dictionaries['tenants'][#request.headers['x-key'][0]]}</code>.
+ * </p>
+ *
+ * <p>
+ * The cache is shared by every event loop without any lock of its own. Once it exceeds its maximum size, entries are
+ * evicted in insertion order, except those read since they were last considered which are given a second chance, which
+ * approximates a least recently used eviction. Expired entries are not removed when read, only replaced by the next
+ * result or evicted, so that the eviction queue always holds each entry exactly once.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+public final class HeaderValueCache {
+
+    /**
+     * Key of the expressions not reading anything from the request.
+     */
+    private static final Object SHARED_KEY = List.of();
+
+    private static final Set<String> SHARED_VARIABLES = Set.of("api", "properties", "dictionaries", "node");
+
+    private static final Pattern HEADER_INPUT = Pattern.compile("#(request|response|message)\\.headers\\s*\\[\\s*'([^']+)'\\s*]");
+
+    private static final Pattern ATTRIBUTE_INPUT = Pattern.compile("#request\\.(method|path)\\b(?!\\s*\\()");
+
+    private final Input[] inputs;
+
+    private final long ttlNanos;
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<Entry> evictionQueue = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private HeaderValueCache(final Input[] inputs, final long ttlNanos, final int maxSize) {
+        this.inputs = inputs;
+        this.ttlNanos = ttlNanos;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param ttlSeconds how long a result is kept, the value not being cached when <code>null</code> or not positive.
+     * @param maxSize maximum number of results kept.
+     * @return the cache of the given value, or <code>null</code> when it is not cached, either because it is not
+     * requested, the value is a literal or it reads something else from the request.
+     */
+    static HeaderValueCache compile(final HeaderExpression value, final Integer ttlSeconds, final int maxSize) {
+        if (ttlSeconds == null || ttlSeconds <= 0 || maxSize <= 0 || value.isLiteral()) {
+            return null;
+        }
+
+        final List<Input> inputs = new ArrayList<>();
+        final StringBuffer remaining = new StringBuffer();
+        final Matcher headers = HEADER_INPUT.matcher(value.getExpression());
+        while (headers.find()) {
+            inputs.add(new Input(headers.group(1), headers.group(2)));
+            headers.appendReplacement(remaining, "");
+        }
+        headers.appendTail(remaining);
+
+        final Matcher attributes = ATTRIBUTE_INPUT.matcher(remaining.toString());
+        while (attributes.find()) {
+            inputs.add(new Input(null, attributes.group(1)));
+        }
+
+        if (!SHARED_VARIABLES.containsAll(HeaderExpression.variables(attributes.replaceAll("")))) {
+            log.warn(
+                "The value {} reads request attributes other than its headers, method and path, it is not cached",
+                value.getExpression()
+            );
+            return null;
+        }
+        return new HeaderValueCache(inputs.toArray(new Input[0]), TimeUnit.SECONDS.toNanos(ttlSeconds), maxSize);
+    }
+
+    /**
+     * @param context the headers, method and path of the current request, <code>null</code> when not available.
+     * @return the key of the result for the given request, or <code>null</code> when what the expression reads is not
+     * available, in which case the value is evaluated without the cache.
+     */
+    Object key(final HeaderConditionContext context) {
+        if (inputs.length == 0) {
+            return SHARED_KEY;
+        }
+        if (context == null) {
+            return null;
+        }
+
+        final Object[] values = new Object[inputs.length];
+        for (int index = 0; index < inputs.length; index++) {
+            values[index] = inputs[index].read(context);
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * @return the result kept for the given key, <code>null</code> when there is none or it has expired, counted as a
+     * hit or a miss.
+     */
+    String get(final Object key) {
+        final Entry entry = entries.get(key);
+        final Result result = entry == null ? null : entry.result;
+        if (result == null || System.nanoTime() - result.expiresAt >= 0) {
+            misses.increment();
+            return null;
+        }
+        entry.referenced = true;
+        hits.increment();
+        return result.value;
+    }
+
+    /**
+     * @return whether a result not expired is kept for the given key, without counting it as a hit or a miss nor as a
+     * read for the eviction.
+     */
+    boolean contains(final Object key) {
+        final Entry entry = entries.get(key);
+        final Result result = entry == null ? null : entry.result;
+        return result != null && System.nanoTime() - result.expiresAt < 0;
+    }
+
+    void put(final Object key, final String value) {
+        final Result result = new Result(value, System.nanoTime() + ttlNanos);
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.result = result;
+            return;
+        }
+
+        final Entry created = new Entry(key, result);
+        final Entry existing = entries.putIfAbsent(key, created);
+        if (existing != null) {
+            existing.result = result;
+            return;
+        }
+        evictionQueue.offer(created);
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        final long now = System.nanoTime();
+        Entry entry;
+        while (entries.size() > maxSize && (entry = evictionQueue.poll()) != null) {
+            if (entry.referenced && now - entry.result.expiresAt < 0) {
+                entry.referenced = false;
+                evictionQueue.offer(entry);
+            } else {
+                entries.remove(entry.key, entry);
+            }
+        }
+    }
+
+    /**
+     * @return the number of results read from the cache.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of evaluations that did not find any result in the cache.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of results currently kept, including the expired ones not replaced yet.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * A header, when the variable is set, or an attribute of the request read by the expression.
+     */
+    private static final class Input {
+
+        private final String variable;
+
+        private final String name;
+
+        private Input(final String variable, final String name) {
+            this.variable = variable;
+            this.name = name;
+        }
+
+        private Object read(final HeaderConditionContext context) {
+            if (variable != null) {
+                final HttpHeaders headers = context.headers(variable);
+                final List<String> values = headers == null ? null : headers.getAll(name);
+                // Header values are copied, the list being a live view on some implementations
+                return values == null || values.isEmpty() ? null : List.copyOf(values);
+            }
+            return "method".equals(name) ? context.getMethod() : context.getPath();
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object key;
+
+        private volatile Result result;
+
+        /**
+         * Whether the entry has been read since the eviction last considered it.
+         */
+        private volatile boolean referenced;
+
+        private Entry(final Object key, final Result result) {
+            this.key = key;
+            this.result = result;
+        }
+    }
+
+    private static final class Result {
+
+        private final String value;
+
+        private final long expiresAt;
+
+        private Result(final String value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
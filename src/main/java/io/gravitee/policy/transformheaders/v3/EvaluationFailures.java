@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.v3;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the header values and conditions that failed to evaluate for an API, and samples the ones worth logging: at most
+ * one per interval, the failures in between being only counted and reported with the next logged one.
+ *
+ * <p>
+ * A policy instance belongs to a single API, so that each API gets its own sampling. Recording a failure is lock-free.
+ * </p>
+ *
+ * @author GraviteeSource Team
+ */
+public final class EvaluationFailures {
+
+    static final long DEFAULT_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Returned by {@link #record()} when the failure is not to be logged.
+     */
+    public static final long NOT_SAMPLED = -1;
+
+    private final long logIntervalNanos;
+
+    private final AtomicLong notLogged = new AtomicLong();
+
+    private final AtomicLong nextLogAt;
+
+    EvaluationFailures(final long logIntervalNanos) {
+        this.logIntervalNanos = logIntervalNanos;
+        this.nextLogAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Records a failure.
+     *
+     * @return the number of failures not logged since the previous logged one when this one is to be logged, or
+     * {@link #NOT_SAMPLED}.
+     */
+    public long record() {
+        final long now = System.nanoTime();
+        final long logAt = nextLogAt.get();
+        if (now - logAt < 0 || !nextLogAt.compareAndSet(logAt, now + logIntervalNanos)) {
+            notLogged.incrementAndGet();
+            return NOT_SAMPLED;
+        }
+        return notLogged.getAndSet(0);
+    }
+}
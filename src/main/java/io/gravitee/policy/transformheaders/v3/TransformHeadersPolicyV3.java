@@ -35,13 +35,24 @@ import io.gravitee.policy.api.annotations.OnResponse;
 import io.gravitee.policy.api.annotations.OnResponseContent;
 import io.gravitee.policy.transformheaders.configuration.PolicyScope;
 import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import io.gravitee.policy.transformheaders.plan.BodyHeaderRule;
+import io.gravitee.policy.transformheaders.plan.BodyValueReader;
+import io.gravitee.policy.transformheaders.plan.HeaderCondition;
+import io.gravitee.policy.transformheaders.plan.HeaderConditionContext;
+import io.gravitee.policy.transformheaders.plan.HeaderCopy;
+import io.gravitee.policy.transformheaders.plan.HeaderExpression;
+import io.gravitee.policy.transformheaders.plan.HeaderPlansReloader;
+import io.gravitee.policy.transformheaders.plan.HeaderRule;
+import io.gravitee.policy.transformheaders.plan.HeaderTransformationPlan;
+import io.gravitee.policy.transformheaders.plan.HeaderTransformationPlans;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.vertx.core.Vertx;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import lombok.AccessLevel;
-import lombok.RequiredArgsConstructor;
+import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
 /**
@@ -49,11 +60,10 @@ import org.slf4j.MDC;
  * @author Nicolas GERAUD (nicolas.geraud at graviteesource.com)
  * @author GraviteeSource Team
  */
-@RequiredArgsConstructor(access = AccessLevel.PROTECTED)
 @Slf4j
 public class TransformHeadersPolicyV3 {
 
-    protected static final String ERROR_MESSAGE_FORMAT = "[api-id:%s] [request-id:%s] [request-path:%s] %s";
+    protected static final String ERROR_MESSAGE_FORMAT = "[api-id:{}] [request-id:{}] [request-path:{}] [not-logged-failures:{}] {}";
     private static final String REQUEST_TEMPLATE_VARIABLE = "request";
     private static final String RESPONSE_TEMPLATE_VARIABLE = "response";
 
@@ -62,11 +72,35 @@ public class TransformHeadersPolicyV3 {
      */
     protected final TransformHeadersPolicyConfiguration configuration;
 
+    /**
+     * Transform headers plans, compiled from the configuration and replaced as a whole when the rules are reloaded
+     */
+    protected final HeaderPlansReloader plans;
+
+    /**
+     * Failures to evaluate a header value or condition, sampled before being logged
+     */
+    protected final EvaluationFailures evaluationFailures = new EvaluationFailures(EvaluationFailures.DEFAULT_LOG_INTERVAL_NANOS);
+
+    /**
+     * Vert.x instance of the gateway, resolved on first use when values are offloaded
+     */
+    protected volatile Vertx vertx;
+
+    protected TransformHeadersPolicyV3(final TransformHeadersPolicyConfiguration configuration) {
+        this.configuration = configuration;
+        this.plans = new HeaderPlansReloader(configuration);
+    }
+
     @OnRequest
     public void onRequest(Request request, Response response, ExecutionContext executionContext, PolicyChain policyChain) {
-        if (configuration.getScope() == null || configuration.getScope() == PolicyScope.REQUEST) {
+        final HeaderTransformationPlan plan = plans(executionContext).getPlan();
+        if (plan.getScope() == PolicyScope.REQUEST) {
+            if (transformOffloaded(plan, request.headers(), executionContext, () -> policyChain.doNext(request, response))) {
+                return;
+            }
             // Do transform
-            transform(request.headers(), executionContext);
+            transform(plan, request.headers(), executionContext, true, null, null);
         }
 
         // Apply next policy in chain
@@ -75,9 +109,13 @@ public class TransformHeadersPolicyV3 {
 
     @OnResponse
     public void onResponse(Request request, Response response, ExecutionContext executionContext, PolicyChain policyChain) {
-        if (configuration.getScope() == PolicyScope.RESPONSE) {
+        final HeaderTransformationPlan plan = plans(executionContext).getPlan();
+        if (plan.getScope() == PolicyScope.RESPONSE) {
+            if (transformOffloaded(plan, response.headers(), executionContext, () -> policyChain.doNext(request, response))) {
+                return;
+            }
             // Do transform
-            transform(response.headers(), executionContext);
+            transform(plan, response.headers(), executionContext, true, null, null);
         }
 
         // Apply next policy in chain
@@ -86,8 +124,9 @@ public class TransformHeadersPolicyV3 {
 
     @OnRequestContent
     public ReadWriteStream<Buffer> onRequestContent(ExecutionContext executionContext) {
-        if (configuration.getScope() == PolicyScope.REQUEST_CONTENT) {
-            return createStream(PolicyScope.REQUEST_CONTENT, executionContext);
+        final HeaderTransformationPlan plan = plans(executionContext).getPlan();
+        if (plan.getScope() == PolicyScope.REQUEST_CONTENT) {
+            return createStream(plan, PolicyScope.REQUEST_CONTENT, executionContext);
         }
 
         return null;
@@ -95,166 +134,541 @@ public class TransformHeadersPolicyV3 {
 
     @OnResponseContent
     public ReadWriteStream<Buffer> onResponseContent(ExecutionContext executionContext) {
-        if (configuration.getScope() == PolicyScope.RESPONSE_CONTENT) {
-            return createStream(PolicyScope.RESPONSE_CONTENT, executionContext);
+        final HeaderTransformationPlan plan = plans(executionContext).getPlan();
+        if (plan.getScope() == PolicyScope.RESPONSE_CONTENT) {
+            return createStream(plan, PolicyScope.RESPONSE_CONTENT, executionContext);
         }
 
         return null;
     }
 
-    private ReadWriteStream<Buffer> createStream(PolicyScope scope, ExecutionContext context) {
+    /**
+     * The body is only buffered when a rule reads it, and up to {@link HeaderTransformationPlan#getMaxContentSize()} bytes.
+     * Values read from the body by the {@link HeaderTransformationPlan#getBodyHeaders()} are parsed chunk by chunk: unless
+     * an expression reads the body too, the buffering stops as soon as they have all been found. Otherwise, the headers are
+     * transformed before the first chunk is passed on and the body is streamed as is.
+     */
+    private ReadWriteStream<Buffer> createStream(HeaderTransformationPlan plan, PolicyScope scope, ExecutionContext context) {
         return new BufferedReadWriteStream() {
-            Buffer buffer = Buffer.buffer();
+            final BodyValueReader bodyValues = plan.getBodyHeaders().isEmpty() ? null : new BodyValueReader(plan.getBodyHeaders());
+
+            Buffer buffer;
+
+            boolean streaming;
 
             @Override
             public SimpleReadWriteStream<Buffer> write(Buffer content) {
+                if (streaming) {
+                    return super.write(content);
+                }
+
+                final boolean bodyValuesRead = bodyValues == null || bodyValues.read(content);
+                if (!plan.isContentDependent() && bodyValuesRead) {
+                    transform(plan, scope, context, false, bodyValues);
+                    return stream(content);
+                }
+
+                if (buffer == null) {
+                    buffer = Buffer.buffer();
+                }
                 buffer.appendBuffer(content);
+
+                if (plan.getMaxContentSize() > 0 && buffer.length() > plan.getMaxContentSize()) {
+                    log.debug("Content is larger than {} bytes, headers depending on it are not transformed", plan.getMaxContentSize());
+                    transform(plan, scope, context, false, bodyValues);
+                    return stream(null);
+                }
                 return this;
             }
 
+            /**
+             * Passes on the buffered chunks, then the given one, and the following ones as they come.
+             */
+            private SimpleReadWriteStream<Buffer> stream(Buffer content) {
+                streaming = true;
+                if (buffer != null) {
+                    final Buffer buffered = buffer;
+                    buffer = null;
+                    super.write(buffered);
+                }
+                return content == null ? this : super.write(content);
+            }
+
             @Override
             public void end() {
-                initRequestResponseProperties(
-                    context,
-                    (scope == PolicyScope.REQUEST_CONTENT) ? buffer.toString() : null,
-                    (scope == PolicyScope.RESPONSE_CONTENT) ? buffer.toString() : null
-                );
-
-                if (scope == PolicyScope.REQUEST_CONTENT) {
-                    transform(context.request().headers(), context);
-                } else {
-                    transform(context.response().headers(), context);
-                }
+                if (!streaming) {
+                    if (bodyValues != null) {
+                        bodyValues.end();
+                    }
+                    if (plan.isContentDependent()) {
+                        final Buffer content = buffer == null ? Buffer.buffer() : buffer;
+                        initRequestResponseProperties(
+                            context,
+                            (scope == PolicyScope.REQUEST_CONTENT) ? content : null,
+                            (scope == PolicyScope.RESPONSE_CONTENT) ? content : null
+                        );
+                    }
+                    transform(plan, scope, context, true, bodyValues);
 
-                if (buffer.length() > 0) {
-                    super.write(buffer);
+                    if (buffer != null && buffer.length() > 0) {
+                        super.write(buffer);
+                    }
                 }
                 super.end();
             }
         };
     }
 
-    private void initRequestResponseProperties(ExecutionContext context, String requestContent, String responseContent) {
+    private void transform(
+        HeaderTransformationPlan plan,
+        PolicyScope scope,
+        ExecutionContext context,
+        boolean withContent,
+        BodyValueReader bodyValues
+    ) {
+        if (scope == PolicyScope.REQUEST_CONTENT) {
+            transform(plan, context.request().headers(), context, withContent, null, bodyValues);
+        } else {
+            transform(plan, context.response().headers(), context, withContent, null, bodyValues);
+        }
+    }
+
+    private void initRequestResponseProperties(ExecutionContext context, Buffer requestContent, Buffer responseContent) {
         context
             .getTemplateEngine()
             .getTemplateContext()
-            .setVariable(REQUEST_TEMPLATE_VARIABLE, new EvaluableRequest(context.request(), requestContent));
+            .setVariable(REQUEST_TEMPLATE_VARIABLE, new LazyContentEvaluableRequest(context.request(), requestContent));
 
         context
             .getTemplateEngine()
             .getTemplateContext()
-            .setVariable(RESPONSE_TEMPLATE_VARIABLE, new EvaluableResponse(context.response(), responseContent));
+            .setVariable(RESPONSE_TEMPLATE_VARIABLE, new LazyContentEvaluableResponse(context.response(), responseContent));
+    }
+
+    /**
+     * Decodes the buffered body only when an expression reads it, at most once.
+     */
+    private static class LazyContentEvaluableRequest extends EvaluableRequest {
+
+        private Buffer buffer;
+
+        private String content;
+
+        LazyContentEvaluableRequest(Request request, Buffer buffer) {
+            super(request);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public String getContent() {
+            if (content == null && buffer != null) {
+                content = buffer.toString();
+                buffer = null;
+            }
+            return content;
+        }
+    }
+
+    /**
+     * Decodes the buffered body only when an expression reads it, at most once.
+     */
+    private static class LazyContentEvaluableResponse extends EvaluableResponse {
+
+        private Buffer buffer;
+
+        private String content;
+
+        LazyContentEvaluableResponse(Response response, Buffer buffer) {
+            super(response);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public String getContent() {
+            if (content == null && buffer != null) {
+                content = buffer.toString();
+                buffer = null;
+            }
+            return content;
+        }
     }
 
     void transform(HttpHeaders httpHeaders, ExecutionContext executionContext) {
+        transform(plans(executionContext).getPlan(), httpHeaders, executionContext, true, null, null);
+    }
+
+    /**
+     * @return the current plans, reloading the rules first when they are due for it.
+     */
+    private HeaderTransformationPlans plans(ExecutionContext executionContext) {
+        return plans.isReloadDue() ? plans.reload(executionContext.getTemplateEngine()) : plans.current();
+    }
+
+    /**
+     * Evaluates the offloaded values whose condition holds on worker threads, then transforms the headers back on the event
+     * loop and continues with the given callback. Their conditions are checked beforehand, once, against the headers not
+     * transformed yet. The content scopes evaluate them on the current thread.
+     *
+     * @return <code>false</code> when no value is offloaded, in which case the headers have to be transformed right away.
+     */
+    private boolean transformOffloaded(
+        HeaderTransformationPlan plan,
+        HttpHeaders httpHeaders,
+        ExecutionContext executionContext,
+        Runnable next
+    ) {
+        final Vertx vertx = vertx(plan, executionContext);
+        if (vertx == null) {
+            return false;
+        }
+
+        final HeaderConditionContext conditionContext = conditionContext(executionContext);
+        final Map<HeaderRule, MaybeSubject<String>> offloadedValues = new IdentityHashMap<>();
+        final List<Completable> evaluations = new ArrayList<>();
+        for (List<HeaderRule> rules : List.of(plan.getAddHeaders(), plan.getAppendHeaders())) {
+            for (HeaderRule header : rules) {
+                if (header.isOffloaded() && matches(header, executionContext, conditionContext)) {
+                    final MaybeSubject<String> value = header.evaluate(executionContext.getTemplateEngine(), conditionContext, vertx);
+                    offloadedValues.put(header, value);
+                    evaluations.add(value.ignoreElement().onErrorComplete());
+                }
+            }
+        }
+
+        Completable.merge(evaluations).subscribe(() -> {
+            try {
+                transform(plan, httpHeaders, executionContext, true, offloadedValues, null);
+            } catch (Exception ex) {
+                logError(ex, executionContext);
+            }
+            next.run();
+        });
+        return true;
+    }
+
+    /**
+     * @return the Vert.x instance of the gateway when the plan offloads values.
+     */
+    private Vertx vertx(HeaderTransformationPlan plan, ExecutionContext executionContext) {
+        return plan.isOffloading() ? vertx(executionContext) : null;
+    }
+
+    /**
+     * @return the Vert.x instance of the gateway, resolved once.
+     */
+    private Vertx vertx(ExecutionContext executionContext) {
+        if (vertx == null) {
+            vertx = executionContext.getComponent(Vertx.class);
+        }
+        return vertx;
+    }
+
+    /**
+     * @param withContent <code>false</code> to skip the rules reading the body, when it has not been buffered.
+     * @param offloadedValues values already evaluated off the event loop, <code>null</code> when none has been. The
+     * offloaded rules missing from them are skipped, their condition not holding.
+     * @param bodyValues values read from the body by the content scopes, <code>null</code> for the other scopes.
+     */
+    private void transform(
+        HeaderTransformationPlan plan,
+        HttpHeaders httpHeaders,
+        ExecutionContext executionContext,
+        boolean withContent,
+        Map<HeaderRule, MaybeSubject<String>> offloadedValues,
+        BodyValueReader bodyValues
+    ) {
+        copyHeaders(plan, httpHeaders);
+        final HeaderConditionContext conditionContext = plan.isCapturingContext() || plan.isDirectlyReadable()
+            ? conditionContext(executionContext)
+            : null;
+
         // Add or update response headers
-        if (configuration.getAddHeaders() != null) {
-            configuration
-                .getAddHeaders()
-                .forEach(header -> {
-                    if (header.getName() != null && !header.getName().trim().isEmpty()) {
-                        try {
-                            String extValue = (header.getValue() != null)
-                                ? executionContext.getTemplateEngine().convert(header.getValue())
-                                : null;
-                            if (extValue != null) {
-                                httpHeaders.set(header.getName(), extValue);
-                            }
-                        } catch (Exception ex) {
-                            MDC.put("api", String.valueOf(executionContext.getAttribute(ATTR_API)));
-                            log.error(
-                                String.format(
-                                    ERROR_MESSAGE_FORMAT,
-                                    executionContext.getAttribute(ATTR_API),
-                                    executionContext.request().id(),
-                                    executionContext.request().path(),
-                                    ex.getMessage()
-                                ),
-                                ex.getCause()
-                            );
-                            MDC.remove("api");
-                        }
-                    }
-                });
-        }
-
-        if (configuration.getAppendHeaders() != null) {
-            configuration
-                .getAppendHeaders()
-                .forEach(header -> {
-                    if (header.getName() != null && !header.getName().trim().isEmpty()) {
-                        try {
-                            String extValue = (header.getValue() != null)
-                                ? executionContext.getTemplateEngine().convert(header.getValue())
-                                : null;
-                            if (extValue != null) {
-                                httpHeaders.add(header.getName(), extValue);
-                            }
-                        } catch (Exception ex) {
-                            MDC.put("api", String.valueOf(executionContext.getAttribute(ATTR_API)));
-                            log.error(
-                                String.format(
-                                    ERROR_MESSAGE_FORMAT,
-                                    executionContext.getAttribute(ATTR_API),
-                                    executionContext.request().id(),
-                                    executionContext.request().path(),
-                                    ex.getMessage()
-                                ),
-                                ex.getCause()
-                            );
-                            MDC.remove("api");
-                        }
-                    }
-                });
+        for (HeaderRule header : plan.getAddHeaders()) {
+            if ((!withContent && header.isContentDependent()) || !isApplied(header, executionContext, conditionContext, offloadedValues)) {
+                continue;
+            }
+            String extValue = convert(header, executionContext, conditionContext, offloadedValues);
+            if (extValue != null) {
+                httpHeaders.set(header.getName(), extValue);
+            }
+        }
+
+        if (bodyValues != null) {
+            final List<BodyHeaderRule> bodyHeaders = plan.getBodyHeaders();
+            for (int i = 0; i < bodyHeaders.size(); i++) {
+                final String value = bodyValues.value(i);
+                if (value != null) {
+                    httpHeaders.set(bodyHeaders.get(i).getName(), value);
+                }
+            }
+        }
+
+        for (HeaderRule header : plan.getAppendHeaders()) {
+            if ((!withContent && header.isContentDependent()) || !isApplied(header, executionContext, conditionContext, offloadedValues)) {
+                continue;
+            }
+            String extValue = convert(header, executionContext, conditionContext, offloadedValues);
+            if (extValue != null) {
+                httpHeaders.add(header.getName(), extValue);
+            }
+        }
+
+        for (HeaderRule header : plan.getConditionalRemoveHeaders()) {
+            if ((withContent || !header.isContentDependent()) && matches(header, executionContext, conditionContext)) {
+                httpHeaders.remove(header.getName());
+            }
         }
 
-        removeHeaders(httpHeaders);
+        removeHeaders(plan, httpHeaders);
     }
 
-    protected void removeHeaders(final HttpHeaders httpHeaders) {
-        List<String> headersToRemove = configuration.getRemoveHeaders() == null
-            ? new ArrayList<>()
-            : new ArrayList<>(configuration.getRemoveHeaders());
-
-        if (httpHeaders != null && configuration.getWhitelistHeaders() != null && !configuration.getWhitelistHeaders().isEmpty()) {
-            httpHeaders
-                .names()
-                .forEach(headerName -> {
-                    if (configuration.getWhitelistHeaders().stream().noneMatch(headerName::equalsIgnoreCase)) {
-                        headersToRemove.add(headerName);
-                    }
-                });
+    private static HeaderConditionContext conditionContext(ExecutionContext executionContext) {
+        final Request request = executionContext.request();
+        final Response response = executionContext.response();
+        return new HeaderConditionContext(
+            request == null ? null : request.headers(),
+            response == null ? null : response.headers(),
+            null,
+            request == null ? null : request.method(),
+            request == null ? null : request.path()
+        );
+    }
+
+    /**
+     * @return whether the rule applies, the conditions of the offloaded values having already been checked.
+     */
+    private boolean isApplied(
+        HeaderRule header,
+        ExecutionContext executionContext,
+        HeaderConditionContext conditionContext,
+        Map<HeaderRule, MaybeSubject<String>> offloadedValues
+    ) {
+        if (offloadedValues != null && header.isOffloaded()) {
+            return offloadedValues.containsKey(header);
         }
+        return matches(header, executionContext, conditionContext);
+    }
 
-        // Remove request headers
-        headersToRemove.forEach(headerName -> {
-            if (headerName != null && !headerName.trim().isEmpty()) {
-                httpHeaders.remove(headerName);
+    /**
+     * @return whether the condition of the rule holds, direct checks being made without the template engine. A condition
+     * that cannot be evaluated does not hold.
+     */
+    private boolean matches(HeaderRule header, ExecutionContext executionContext, HeaderConditionContext conditionContext) {
+        final HeaderCondition condition = header.getCondition();
+        if (condition == null) {
+            return true;
+        }
+
+        final Boolean direct = condition.test(conditionContext);
+        if (direct != null) {
+            return direct;
+        }
+
+        try {
+            return Boolean.TRUE.equals(
+                valueOf(condition.evaluate(executionContext.getTemplateEngine(), null), condition.getExpression(), executionContext)
+            );
+        } catch (Exception ex) {
+            logError(ex, executionContext);
+            return false;
+        }
+    }
+
+    private String convert(
+        HeaderRule header,
+        ExecutionContext executionContext,
+        HeaderConditionContext conditionContext,
+        Map<HeaderRule, MaybeSubject<String>> offloadedValues
+    ) {
+        if (header.isLiteral()) {
+            return header.getValue().getExpression();
+        }
+
+        // A plain read of a missing header, method or path skips the header, like its evaluation failure would, without
+        // raising nor logging the failure
+        final String direct = header.getValue().read(conditionContext);
+        if (direct != null) {
+            return direct == HeaderExpression.MISSING ? null : direct;
+        }
+
+        try {
+            // Evaluating through the template engine reuses the parsed expression it keeps in cache, unlike convert
+            final MaybeSubject<String> offloaded = offloadedValues == null ? null : offloadedValues.get(header);
+            final MaybeSubject<String> value = offloaded != null
+                ? offloaded
+                : header.evaluate(executionContext.getTemplateEngine(), conditionContext);
+            return valueOf(value, header.getValue(), executionContext);
+        } catch (Exception ex) {
+            logError(ex, executionContext);
+            return null;
+        }
+    }
+
+    /**
+     * @return the result of the evaluation, or <code>null</code> when it failed, gave no result or is still in progress.
+     * Headers are transformed synchronously, so that an evaluation still in progress is handled like a failure instead of
+     * being evaluated again.
+     */
+    private <T> T valueOf(MaybeSubject<T> evaluation, HeaderExpression expression, ExecutionContext executionContext) {
+        if (evaluation.hasValue()) {
+            return evaluation.getValue();
+        } else if (evaluation.hasThrowable()) {
+            logError(evaluation.getThrowable(), executionContext);
+        } else if (!evaluation.hasComplete()) {
+            logError(new IllegalStateException("The expression " + expression.getExpression() + " did not complete"), executionContext);
+        }
+        return null;
+    }
+
+    /**
+     * Records the failure, and only logs it when it is sampled: the message is neither built nor formatted otherwise.
+     */
+    private void logError(Throwable ex, ExecutionContext executionContext) {
+        final long notLogged = evaluationFailures.record();
+        if (notLogged == EvaluationFailures.NOT_SAMPLED || !log.isErrorEnabled()) {
+            return;
+        }
+
+        final Object api = executionContext.getAttribute(ATTR_API);
+        MDC.put("api", String.valueOf(api));
+        try {
+            log.error(
+                ERROR_MESSAGE_FORMAT,
+                api,
+                executionContext.request().id(),
+                executionContext.request().path(),
+                notLogged,
+                ex.getMessage(),
+                ex.getCause()
+            );
+        } finally {
+            MDC.remove("api");
+        }
+    }
+
+    /**
+     * Copies or moves all the values of the source headers, without going through the template engine. A missing source
+     * header leaves the target one untouched.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void copyHeaders(final HeaderTransformationPlan plan, final HttpHeaders httpHeaders) {
+        if (httpHeaders == null) {
+            return;
+        }
+
+        for (HeaderCopy copy : plan.getCopyHeaders()) {
+            final List<String> values = httpHeaders.getAll(copy.getSource());
+            if (values != null && !values.isEmpty()) {
+                httpHeaders.set(copy.getTarget(), (Iterable) values);
+                if (copy.isMove()) {
+                    httpHeaders.remove(copy.getSource());
+                }
             }
-        });
+        }
     }
 
-    protected void removeHeaders(final KafkaMessage kafkaMessage) {
-        List<String> headersToRemove = configuration.getRemoveHeaders() == null
-            ? new ArrayList<>()
-            : new ArrayList<>(configuration.getRemoveHeaders());
-
-        if (configuration.getWhitelistHeaders() != null && !configuration.getWhitelistHeaders().isEmpty()) {
-            kafkaMessage
-                .recordHeaders()
-                .keySet()
-                .forEach(headerName -> {
-                    if (configuration.getWhitelistHeaders().stream().noneMatch(headerName::equalsIgnoreCase)) {
-                        headersToRemove.add(headerName);
-                    }
-                });
+    /**
+     * Copies or moves the source record headers. A copy gets its own view of the bytes, so that appending to one of the
+     * headers leaves the other untouched.
+     */
+    protected void copyHeaders(final HeaderTransformationPlan plan, final KafkaMessage kafkaMessage) {
+        if (plan.getCopyHeaders().isEmpty()) {
+            return;
+        }
+
+        final Map<String, Buffer> recordHeaders = kafkaMessage.recordHeaders();
+        for (HeaderCopy copy : plan.getCopyHeaders()) {
+            final Buffer value = recordHeaders.get(copy.getSource());
+            if (value != null) {
+                if (copy.isMove()) {
+                    kafkaMessage.removeRecordHeader(copy.getSource());
+                    kafkaMessage.putRecordHeader(copy.getTarget(), value);
+                } else {
+                    kafkaMessage.putRecordHeader(copy.getTarget(), Buffer.buffer(value.getNativeBuffer().duplicate()));
+                }
+            }
+        }
+    }
+
+    protected int removeHeaders(final HttpHeaders httpHeaders) {
+        return removeHeaders(plans.current().getPlan(), httpHeaders);
+    }
+
+    /**
+     * @return the number of headers dropped because they are not whitelisted.
+     */
+    protected int removeHeaders(final HeaderTransformationPlan plan, final HttpHeaders httpHeaders) {
+        if (httpHeaders == null || httpHeaders.isEmpty()) {
+            return 0;
+        }
+
+        if (!plan.isFilteringEachHeader()) {
+            for (String headerName : plan.getRemoveHeaders()) {
+                httpHeaders.remove(headerName);
+            }
+            return 0;
+        }
+
+        // Single pass over the headers, the names to drop are only collected from the first one and removed at the end,
+        // as the names may be a live view of the headers
+        List<String> headersToRemove = null;
+        int dropped = 0;
+        for (String headerName : httpHeaders.names()) {
+            final boolean whitelisted = !plan.hasWhitelist() || plan.getWhitelist().matches(headerName);
+            if (!whitelisted || plan.getRemoveMatcher().matches(headerName)) {
+                if (headersToRemove == null) {
+                    headersToRemove = new ArrayList<>();
+                }
+                headersToRemove.add(headerName);
+                if (!whitelisted) {
+                    dropped++;
+                }
+            }
+        }
+
+        if (headersToRemove != null) {
+            for (int index = 0; index < headersToRemove.size(); index++) {
+                httpHeaders.remove(headersToRemove.get(index));
+            }
         }
+        return dropped;
+    }
 
-        // Remove request headers
-        headersToRemove.forEach(headerName -> {
-            if (headerName != null && !headerName.trim().isEmpty()) {
+    protected void removeHeaders(final HeaderTransformationPlan plan, final KafkaMessage kafkaMessage) {
+        if (!plan.isFilteringEachHeader()) {
+            for (String headerName : plan.getRemoveHeaders()) {
                 kafkaMessage.removeRecordHeader(headerName);
             }
-        });
+            return;
+        }
+
+        // Single pass over the record headers, removed names are matched exactly as Kafka header keys are case-sensitive,
+        // while patterns are matched ignoring case like the whitelist
+        final Map<String, Buffer> recordHeaders = kafkaMessage.recordHeaders();
+        if (recordHeaders.isEmpty()) {
+            return;
+        }
+
+        // Record headers can only be removed through the message, so that the names to remove are only collected from the
+        // first one while iterating the live names, and removed at the end
+        List<String> headersToRemove = null;
+        for (String headerName : recordHeaders.keySet()) {
+            if (
+                (plan.hasWhitelist() && !plan.getWhitelist().matches(headerName)) ||
+                plan.getRemoveHeaders().contains(headerName) ||
+                plan.getRemoveMatcher().matchesPattern(headerName)
+            ) {
+                if (headersToRemove == null) {
+                    headersToRemove = new ArrayList<>();
+                }
+                headersToRemove.add(headerName);
+            }
+        }
+
+        if (headersToRemove != null) {
+            for (int index = 0; index < headersToRemove.size(); index++) {
+                kafkaMessage.removeRecordHeader(headersToRemove.get(index));
+            }
+        }
     }
 }
@@ -0,0 +1,875 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.gateway.reactive.api.ExecutionFailure;
+import io.gravitee.gateway.reactive.api.context.http.HttpMessageExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpMessageRequest;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainRequest;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainResponse;
+import io.gravitee.gateway.reactive.api.context.kafka.KafkaExecutionContext;
+import io.gravitee.gateway.reactive.api.context.kafka.KafkaMessageExecutionContext;
+import io.gravitee.gateway.reactive.api.context.kafka.KafkaMessageRequest;
+import io.gravitee.gateway.reactive.api.message.DefaultMessage;
+import io.gravitee.gateway.reactive.api.message.Message;
+import io.gravitee.gateway.reactive.api.message.kafka.KafkaMessage;
+import io.gravitee.policy.transformheaders.configuration.EvaluationStrategy;
+import io.gravitee.policy.transformheaders.configuration.HeaderOperation;
+import io.gravitee.policy.transformheaders.configuration.HeaderOperationType;
+import io.gravitee.policy.transformheaders.configuration.HeaderRemoval;
+import io.gravitee.policy.transformheaders.configuration.HeaderRuleSet;
+import io.gravitee.policy.transformheaders.configuration.HttpHeader;
+import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import io.gravitee.policy.transformheaders.plan.HeaderExpression;
+import io.gravitee.reporter.api.v4.metric.Metrics;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.FlowableTransformer;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.reactivex.rxjava3.subscribers.TestSubscriber;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.kafka.common.protocol.Errors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * @author GraviteeSource Team
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class TransformHeadersPolicyTest {
+
+    @Mock
+    private HttpPlainExecutionContext ctx;
+
+    @Mock
+    private HttpPlainRequest request;
+
+    @Mock
+    private TemplateEngine templateEngine;
+
+    @Mock
+    private KafkaExecutionContext kafkaExecutionContext;
+
+    private final HttpHeaders requestHeaders = HttpHeaders.create();
+
+    private final TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+
+    @BeforeEach
+    void init() {
+        lenient().when(ctx.request()).thenReturn(request);
+        lenient().when(ctx.getTemplateEngine()).thenReturn(templateEngine);
+        lenient().when(request.headers()).thenReturn(requestHeaders);
+    }
+
+    @Test
+    void should_apply_literal_headers_synchronously() {
+        requestHeaders.set("X-Removed", "value");
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "added")));
+        configuration.setAppendHeaders(List.of(new HttpHeader("X-Added", "appended")));
+        configuration.setRemoveHeaders(List.of("X-Removed"));
+
+        Completable result = new TransformHeadersPolicy(configuration).onRequest(ctx);
+
+        assertThat(result).isSameAs(Completable.complete());
+        assertThat(requestHeaders.getAll("X-Added")).containsExactly("added", "appended");
+        assertThat(requestHeaders.contains("X-Removed")).isFalse();
+        verify(templateEngine, never()).eval(any(), any());
+    }
+
+    @Test
+    void should_apply_synchronous_expressions_inline() {
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "{#request.id}")));
+        when(templateEngine.eval("{#request.id}", String.class)).thenReturn(Maybe.just("request-id"));
+
+        Completable result = new TransformHeadersPolicy(configuration).onRequest(ctx);
+
+        assertThat(result).isSameAs(Completable.complete());
+        assertThat(requestHeaders.get("X-Added")).isEqualTo("request-id");
+    }
+
+    @Test
+    void should_keep_rules_order_when_expression_is_asynchronous() {
+        final MaybeSubject<String> asyncValue = MaybeSubject.create();
+        requestHeaders.set("X-Removed", "value");
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "{#request.id}"), new HttpHeader("X-Literal", "literal")));
+        configuration.setAppendHeaders(List.of(new HttpHeader("X-Added", "appended")));
+        configuration.setRemoveHeaders(List.of("X-Removed"));
+        when(templateEngine.eval("{#request.id}", String.class)).thenReturn(asyncValue);
+
+        TestObserver<Void> obs = new TransformHeadersPolicy(configuration).onRequest(ctx).test();
+
+        obs.assertNotComplete();
+        assertThat(requestHeaders.contains("X-Added")).isFalse();
+        assertThat(requestHeaders.contains("X-Literal")).isFalse();
+        assertThat(requestHeaders.contains("X-Removed")).isTrue();
+
+        asyncValue.onSuccess("request-id");
+
+        obs.assertComplete();
+        assertThat(requestHeaders.getAll("X-Added")).containsExactly("request-id", "appended");
+        assertThat(requestHeaders.get("X-Literal")).isEqualTo("literal");
+        assertThat(requestHeaders.contains("X-Removed")).isFalse();
+    }
+
+    @Test
+    void should_evaluate_rules_in_parallel_and_apply_them_in_order() {
+        final MaybeSubject<String> first = MaybeSubject.create();
+        final MaybeSubject<String> second = MaybeSubject.create();
+        configuration.setEvaluationStrategy(EvaluationStrategy.PARALLEL);
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Value", "{#first}"), new HttpHeader("X-Value", "{#second}")));
+        configuration.setAppendHeaders(List.of(new HttpHeader("X-Value", "{#second}"), new HttpHeader("X-Value", "{#first}")));
+        when(templateEngine.eval("{#first}", String.class)).thenReturn(first);
+        when(templateEngine.eval("{#second}", String.class)).thenReturn(second);
+
+        TestObserver<Void> obs = new TransformHeadersPolicy(configuration).onRequest(ctx).test();
+
+        verify(templateEngine).eval("{#second}", String.class);
+        second.onSuccess("second");
+        obs.assertNotComplete();
+        assertThat(requestHeaders.contains("X-Value")).isFalse();
+
+        first.onSuccess("first");
+
+        obs.assertComplete();
+        assertThat(requestHeaders.getAll("X-Value")).containsExactly("second", "second", "first");
+    }
+
+    @Test
+    void should_evaluate_rules_reading_a_header_once_the_rule_writing_it_has_been_applied() {
+        final MaybeSubject<String> tenant = MaybeSubject.create();
+        configuration.setEvaluationStrategy(EvaluationStrategy.PARALLEL);
+        configuration.setAddHeaders(
+            List.of(
+                new HttpHeader("X-Tenant", "{#tenant}"),
+                new HttpHeader("X-Key", "{#request.headers['X-Tenant'][0]}"),
+                new HttpHeader("X-Other", "{#other}")
+            )
+        );
+        when(templateEngine.eval("{#tenant}", String.class)).thenReturn(tenant);
+        when(templateEngine.eval("{#other}", String.class)).thenReturn(Maybe.just("other"));
+        when(templateEngine.eval("{#request.headers['X-Tenant'][0]}", String.class)).thenAnswer(invocation ->
+            Maybe.just("key-" + requestHeaders.get("X-Tenant"))
+        );
+
+        TestObserver<Void> obs = new TransformHeadersPolicy(configuration).onRequest(ctx).test();
+
+        verify(templateEngine, never()).eval("{#request.headers['X-Tenant'][0]}", String.class);
+
+        tenant.onSuccess("acme");
+
+        obs.assertComplete();
+        assertThat(requestHeaders.get("X-Key")).isEqualTo("key-acme");
+        assertThat(requestHeaders.get("X-Other")).isEqualTo("other");
+    }
+
+    @Test
+    void should_dispose_the_evaluations_in_progress_when_one_fails() {
+        final MaybeSubject<String> first = MaybeSubject.create();
+        final MaybeSubject<String> second = MaybeSubject.create();
+        configuration.setEvaluationStrategy(EvaluationStrategy.PARALLEL);
+        configuration.setAddHeaders(List.of(new HttpHeader("X-First", "{#first}"), new HttpHeader("X-Second", "{#second}")));
+        when(templateEngine.eval("{#first}", String.class)).thenReturn(first);
+        when(templateEngine.eval("{#second}", String.class)).thenReturn(second);
+        when(ctx.interruptWith(any(ExecutionFailure.class))).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        TestObserver<Void> obs = new TransformHeadersPolicy(configuration).onRequest(ctx).test();
+
+        assertThat(second.hasObservers()).isTrue();
+
+        first.onError(new IllegalStateException("boom"));
+
+        obs.assertError(RuntimeException.class);
+        assertThat(second.hasObservers()).isFalse();
+    }
+
+    @Test
+    void should_bound_the_rules_evaluated_at_once() {
+        final MaybeSubject<String> first = MaybeSubject.create();
+        configuration.setEvaluationStrategy(EvaluationStrategy.BOUNDED_PARALLEL);
+        configuration.setMaxConcurrentEvaluations(2);
+        configuration.setAddHeaders(
+            List.of(
+                new HttpHeader("X-First", "{#first}"),
+                new HttpHeader("X-Skipped", "{#second}", "{#request.headers['X-Missing'] != null}"),
+                new HttpHeader("X-Third", "{#third}")
+            )
+        );
+        when(templateEngine.eval("{#first}", String.class)).thenReturn(first);
+        when(templateEngine.eval("{#third}", String.class)).thenReturn(Maybe.just("third"));
+
+        TestObserver<Void> obs = new TransformHeadersPolicy(configuration).onRequest(ctx).test();
+
+        obs.assertNotComplete();
+        verify(templateEngine, never()).eval("{#third}", String.class);
+
+        first.onSuccess("first");
+
+        obs.assertComplete();
+        assertThat(requestHeaders.get("X-First")).isEqualTo("first");
+        assertThat(requestHeaders.contains("X-Skipped")).isFalse();
+        assertThat(requestHeaders.get("X-Third")).isEqualTo("third");
+        verify(templateEngine, never()).eval("{#second}", String.class);
+    }
+
+    @Test
+    void should_use_the_fallback_value_of_offloaded_values_timing_out() throws Exception {
+        configuration.setAddHeaders(List.of(offloaded("{#slow}", "fallback")));
+        when(templateEngine.eval("{#slow}", String.class)).thenReturn(Maybe.never());
+        final Vertx vertx = Vertx.vertx();
+        try {
+            when(ctx.getComponent(Vertx.class)).thenReturn(vertx);
+
+            assertThat(onRequestOnEventLoop(new TransformHeadersPolicy(configuration), vertx)).isTrue();
+
+            assertThat(requestHeaders.get("X-Slow")).isEqualTo("fallback");
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test
+    void should_skip_offloaded_values_timing_out_without_fallback() throws Exception {
+        configuration.setAddHeaders(List.of(offloaded("{#slow}", null), new HttpHeader("X-Next", "next")));
+        when(templateEngine.eval("{#slow}", String.class)).thenReturn(Maybe.never());
+        final Vertx vertx = Vertx.vertx();
+        try {
+            when(ctx.getComponent(Vertx.class)).thenReturn(vertx);
+
+            assertThat(onRequestOnEventLoop(new TransformHeadersPolicy(configuration), vertx)).isTrue();
+
+            assertThat(requestHeaders.contains("X-Slow")).isFalse();
+            assertThat(requestHeaders.get("X-Next")).isEqualTo("next");
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test
+    void should_not_cache_offloaded_values_evaluated_after_the_timeout() throws Exception {
+        final String expression = "{#dictionaries['slow']['value']}";
+        final HttpHeader header = offloaded(expression, "fallback");
+        header.setCacheTtl(60);
+        final MaybeSubject<String> late = MaybeSubject.create();
+        configuration.setAddHeaders(List.of(header));
+        when(templateEngine.eval(expression, String.class)).thenReturn(late, Maybe.just("in time"));
+        final Vertx vertx = Vertx.vertx();
+        try {
+            when(ctx.getComponent(Vertx.class)).thenReturn(vertx);
+            final TransformHeadersPolicy policy = new TransformHeadersPolicy(configuration);
+
+            onRequestOnEventLoop(policy, vertx);
+            assertThat(requestHeaders.get("X-Slow")).isEqualTo("fallback");
+            late.onSuccess("late");
+            onRequestOnEventLoop(policy, vertx);
+            assertThat(requestHeaders.get("X-Slow")).isEqualTo("in time");
+            onRequestOnEventLoop(policy, vertx);
+
+            assertThat(requestHeaders.get("X-Slow")).isEqualTo("in time");
+            verify(templateEngine, times(2)).eval(expression, String.class);
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test
+    void should_interrupt_when_expression_fails() {
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "{#request.id}")));
+        when(templateEngine.eval("{#request.id}", String.class)).thenReturn(Maybe.error(new IllegalStateException("boom")));
+        when(ctx.interruptWith(any(ExecutionFailure.class))).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        new TransformHeadersPolicy(configuration).onRequest(ctx).test().assertError(RuntimeException.class);
+
+        verify(ctx).interruptWith(any(ExecutionFailure.class));
+        assertThat(requestHeaders.contains("X-Added")).isFalse();
+    }
+
+    @Test
+    void should_apply_the_rules_of_each_phase() {
+        final HttpPlainResponse response = mock(HttpPlainResponse.class);
+        final HttpHeaders responseHeaders = HttpHeaders.create().set("Server", "gateway").set("X-Common", "value");
+        final HeaderRuleSet requestRules = new HeaderRuleSet();
+        requestRules.setAddHeaders(List.of(new HttpHeader("X-Request", "request")));
+        configuration.setRequest(requestRules);
+        configuration.setRemoveHeaders(List.of("Server"));
+        requestHeaders.set("Server", "client");
+        when(ctx.response()).thenReturn(response);
+        when(response.headers()).thenReturn(responseHeaders);
+
+        final TransformHeadersPolicy policy = new TransformHeadersPolicy(configuration);
+        policy.onRequest(ctx).test().assertComplete();
+        policy.onResponse(ctx).test().assertComplete();
+
+        assertThat(requestHeaders.get("X-Request")).isEqualTo("request");
+        assertThat(requestHeaders.get("Server")).isEqualTo("client");
+        assertThat(responseHeaders.contains("X-Request")).isFalse();
+        assertThat(responseHeaders.contains("Server")).isFalse();
+    }
+
+    @Test
+    void should_not_build_anything_for_a_phase_without_rules() {
+        final HttpMessageExecutionContext messageCtx = mock(HttpMessageExecutionContext.class);
+        configuration.setRequest(new HeaderRuleSet());
+        configuration.setMessageRequest(new HeaderRuleSet());
+
+        final TransformHeadersPolicy policy = new TransformHeadersPolicy(configuration);
+
+        assertThat(policy.onRequest(ctx)).isSameAs(Completable.complete());
+        assertThat(policy.onMessageRequest(messageCtx)).isSameAs(Completable.complete());
+        verify(ctx, never()).request();
+        verify(messageCtx, never()).request();
+    }
+
+    @Test
+    void should_skip_rules_whose_direct_condition_does_not_hold_without_evaluating_them() {
+        requestHeaders.set("X-Debug", "true").set("X-Internal", "value");
+        configuration.setAddHeaders(
+            List.of(
+                new HttpHeader("X-Skipped", "{#request.id}", "{#request.headers['X-Missing'] != null}"),
+                new HttpHeader("X-Debug-Id", "debug", "{#request.headers['X-Debug'][0] == 'true'}")
+            )
+        );
+        configuration.setConditionalRemoveHeaders(
+            List.of(
+                new HeaderRemoval("X-Internal", "{#request.method == 'GET'}"),
+                new HeaderRemoval("X-Debug", "{#request.method == 'POST'}")
+            )
+        );
+        when(request.method()).thenReturn(HttpMethod.GET);
+
+        TestObserver<Void> obs = new TransformHeadersPolicy(configuration).onRequest(ctx).test();
+
+        obs.assertComplete();
+        assertThat(requestHeaders.contains("X-Skipped")).isFalse();
+        assertThat(requestHeaders.get("X-Debug-Id")).isEqualTo("debug");
+        assertThat(requestHeaders.contains("X-Internal")).isFalse();
+        assertThat(requestHeaders.contains("X-Debug")).isTrue();
+        verify(templateEngine, never()).eval(any(), any());
+    }
+
+    @Test
+    void should_keep_rules_order_when_condition_is_asynchronous() {
+        final MaybeSubject<Boolean> asyncCondition = MaybeSubject.create();
+        configuration.setAddHeaders(
+            List.of(
+                new HttpHeader("X-Conditional", "{#request.id}", "{#context.attributes['enabled']}"),
+                new HttpHeader("X-Conditional", "literal")
+            )
+        );
+        when(templateEngine.eval("{#context.attributes['enabled']}", Boolean.class)).thenReturn(asyncCondition);
+        when(templateEngine.eval("{#request.id}", String.class)).thenReturn(Maybe.just("request-id"));
+
+        TestObserver<Void> obs = new TransformHeadersPolicy(configuration).onRequest(ctx).test();
+
+        obs.assertNotComplete();
+        assertThat(requestHeaders.contains("X-Conditional")).isFalse();
+
+        asyncCondition.onSuccess(true);
+
+        obs.assertComplete();
+        assertThat(requestHeaders.getAll("X-Conditional")).containsExactly("literal");
+        verify(templateEngine).eval("{#request.id}", String.class);
+    }
+
+    @Test
+    void should_interrupt_when_condition_fails() {
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "added", "{#context.attributes['enabled']}")));
+        when(templateEngine.eval("{#context.attributes['enabled']}", Boolean.class)).thenReturn(
+            Maybe.error(new IllegalStateException("boom"))
+        );
+        when(ctx.interruptWith(any(ExecutionFailure.class))).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        new TransformHeadersPolicy(configuration).onRequest(ctx).test().assertError(RuntimeException.class);
+
+        assertThat(requestHeaders.contains("X-Added")).isFalse();
+    }
+
+    @Test
+    void should_reuse_cached_values_for_requests_with_the_same_headers() {
+        final String tenant = "{#dictionaries['tenants'][#request.headers['X-Key'][0]]}";
+        final HttpHeader header = new HttpHeader("X-Tenant", tenant);
+        header.setCacheTtl(60);
+        configuration.setAddHeaders(List.of(header));
+        when(templateEngine.eval(tenant, String.class)).thenReturn(Maybe.just("acme"));
+        final TransformHeadersPolicy policy = new TransformHeadersPolicy(configuration);
+
+        requestHeaders.set("X-Key", "a");
+        policy.onRequest(ctx).test().assertComplete();
+        requestHeaders.remove("X-Tenant");
+        policy.onRequest(ctx).test().assertComplete();
+
+        assertThat(requestHeaders.get("X-Tenant")).isEqualTo("acme");
+        verify(templateEngine, times(1)).eval(tenant, String.class);
+    }
+
+    @Test
+    void should_not_report_metrics_by_default() {
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "added")));
+
+        new TransformHeadersPolicy(configuration).onRequest(ctx).test().assertComplete();
+
+        verify(ctx, never()).metrics();
+    }
+
+    @Test
+    void should_report_request_metrics() {
+        final Metrics metrics = new Metrics();
+        requestHeaders.set("X-Kept", "value").set("X-Dropped", "value").set("X-Other", "value");
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Kept", "kept"), new HttpHeader("X-Id", "{#request.id}")));
+        configuration.setWhitelistHeaders(List.of("X-Kept", "X-Id"));
+        configuration.setReportMetrics(true);
+        when(ctx.metrics()).thenReturn(metrics);
+        when(templateEngine.eval("{#request.id}", String.class)).thenReturn(Maybe.just("request-id"));
+
+        new TransformHeadersPolicy(configuration).onRequest(ctx).test().assertComplete();
+
+        assertThat(metrics.longAdditionalMetrics())
+            .containsEntry("long_transform-headers_request_transformations", 1L)
+            .containsEntry("long_transform-headers_request_expression-values", 1L)
+            .containsEntry("long_transform-headers_request_literal-values", 1L)
+            .containsEntry("long_transform-headers_request_whitelist-drops", 2L)
+            .containsEntry("long_transform-headers_request_failures", 0L)
+            .containsKey("long_transform-headers_request_duration-ns");
+    }
+
+    @Test
+    void should_only_count_the_values_computed_and_applied() {
+        final Metrics firstMetrics = new Metrics();
+        final Metrics secondMetrics = new Metrics();
+        final HttpHeader cached = new HttpHeader("X-Tenant", "{#dictionaries['tenants']['acme']}");
+        cached.setCacheTtl(60);
+        configuration.setAddHeaders(
+            List.of(
+                cached,
+                new HttpHeader("X-Skipped", "{#request.id}", "{#request.headers['X-Missing'] != null}"),
+                new HttpHeader("X-Literal", "literal", "{#request.headers['X-Missing'] != null}")
+            )
+        );
+        configuration.setReportMetrics(true);
+        when(ctx.metrics()).thenReturn(firstMetrics, secondMetrics);
+        when(templateEngine.eval("{#dictionaries['tenants']['acme']}", String.class)).thenReturn(Maybe.just("acme"));
+        final TransformHeadersPolicy policy = new TransformHeadersPolicy(configuration);
+
+        policy.onRequest(ctx).test().assertComplete();
+        policy.onRequest(ctx).test().assertComplete();
+
+        assertThat(firstMetrics.longAdditionalMetrics())
+            .containsEntry("long_transform-headers_request_expression-values", 1L)
+            .containsEntry("long_transform-headers_request_literal-values", 0L)
+            .containsEntry("long_transform-headers_request_cache-hits", 0L)
+            .containsEntry("long_transform-headers_request_cache-misses", 1L);
+        assertThat(secondMetrics.longAdditionalMetrics())
+            .containsEntry("long_transform-headers_request_expression-values", 0L)
+            .containsEntry("long_transform-headers_request_literal-values", 0L)
+            .containsEntry("long_transform-headers_request_cache-hits", 1L)
+            .containsEntry("long_transform-headers_request_cache-misses", 0L);
+        assertThat(requestHeaders.get("X-Tenant")).isEqualTo("acme");
+        verify(templateEngine, never()).eval("{#request.id}", String.class);
+    }
+
+    @Test
+    void should_report_failure_metrics_once_asynchronous_transformation_terminates() {
+        final Metrics metrics = new Metrics();
+        final MaybeSubject<String> asyncValue = MaybeSubject.create();
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Id", "{#request.id}")));
+        configuration.setReportMetrics(true);
+        when(ctx.metrics()).thenReturn(metrics);
+        when(ctx.interruptWith(any(ExecutionFailure.class))).thenReturn(Completable.error(new RuntimeException("interrupted")));
+        when(templateEngine.eval("{#request.id}", String.class)).thenReturn(asyncValue);
+
+        TestObserver<Void> obs = new TransformHeadersPolicy(configuration).onRequest(ctx).test();
+
+        assertThat(metrics.longAdditionalMetrics()).isNull();
+
+        asyncValue.onError(new IllegalStateException("boom"));
+
+        obs.assertError(RuntimeException.class);
+        assertThat(metrics.longAdditionalMetrics()).containsEntry("long_transform-headers_request_failures", 1L);
+    }
+
+    @Test
+    void should_report_message_metrics_once_per_flow() {
+        final Metrics metrics = new Metrics();
+        final HttpMessageExecutionContext messageCtx = mock(HttpMessageExecutionContext.class);
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "added")));
+        configuration.setReportMetrics(true);
+        when(messageCtx.metrics()).thenReturn(metrics);
+
+        runOnMessages(
+            new TransformHeadersPolicy(configuration),
+            messageCtx,
+            DefaultMessage.builder().headers(HttpHeaders.create()).build(),
+            DefaultMessage.builder().headers(HttpHeaders.create()).build()
+        ).assertComplete();
+
+        verify(messageCtx, times(1)).metrics();
+        assertThat(metrics.longAdditionalMetrics())
+            .containsEntry("long_transform-headers_message-request_transformations", 2L)
+            .containsEntry("long_transform-headers_message-request_literal-values", 2L)
+            .containsEntry("long_transform-headers_message-request_expression-values", 0L);
+    }
+
+    @Test
+    void should_count_message_invariant_values_once_per_flow() {
+        final Metrics metrics = new Metrics();
+        final HttpMessageExecutionContext messageCtx = mock(HttpMessageExecutionContext.class);
+        final TemplateEngine messageTemplateEngine = mock(TemplateEngine.class);
+        configuration.setAddHeaders(
+            List.of(new HttpHeader("X-Tenant", "{#properties['tenant']}"), new HttpHeader("X-Message-Id", "{#message.id}"))
+        );
+        configuration.setReportMetrics(true);
+        when(messageCtx.metrics()).thenReturn(metrics);
+        when(messageCtx.getTemplateEngine()).thenReturn(templateEngine);
+        when(messageCtx.getTemplateEngine(any(Message.class))).thenReturn(messageTemplateEngine);
+        when(templateEngine.eval("{#properties['tenant']}", String.class)).thenReturn(Maybe.just("acme"));
+        when(messageTemplateEngine.eval("{#message.id}", String.class)).thenReturn(Maybe.just("message-1"), Maybe.just("message-2"));
+
+        runOnMessages(
+            new TransformHeadersPolicy(configuration),
+            messageCtx,
+            DefaultMessage.builder().headers(HttpHeaders.create()).build(),
+            DefaultMessage.builder().headers(HttpHeaders.create()).build()
+        ).assertComplete();
+
+        assertThat(metrics.longAdditionalMetrics())
+            .containsEntry("long_transform-headers_message-request_transformations", 2L)
+            .containsEntry("long_transform-headers_message-request_expression-values", 3L);
+    }
+
+    @Test
+    void should_filter_kafka_record_headers_in_a_single_pass() {
+        final Map<String, Buffer> recordHeaders = new HashMap<>();
+        recordHeaders.put("X-Kept", Buffer.buffer("kept"));
+        recordHeaders.put("x-kept-lowercase", Buffer.buffer("kept"));
+        recordHeaders.put("X-Removed", Buffer.buffer("removed"));
+        recordHeaders.put("X-Not-Whitelisted", Buffer.buffer("removed"));
+        configuration.setWhitelistHeaders(List.of("X-Kept", "X-Kept-Lowercase", "X-Removed"));
+        configuration.setRemoveHeaders(List.of("X-Removed"));
+
+        runOnKafkaMessage(new TransformHeadersPolicy(configuration), kafkaMessage(recordHeaders)).assertComplete();
+
+        assertThat(recordHeaders).containsOnlyKeys("X-Kept", "x-kept-lowercase");
+    }
+
+    @Test
+    void should_remove_kafka_record_headers_matching_a_pattern() {
+        final Map<String, Buffer> recordHeaders = new HashMap<>();
+        recordHeaders.put("x-internal-token", Buffer.buffer("secret"));
+        recordHeaders.put("X-Kept", Buffer.buffer("kept"));
+        configuration.setRemoveHeaders(List.of("X-Internal-*"));
+
+        runOnKafkaMessage(new TransformHeadersPolicy(configuration), kafkaMessage(recordHeaders)).assertComplete();
+
+        assertThat(recordHeaders).containsOnlyKeys("X-Kept");
+    }
+
+    @Test
+    void should_copy_and_move_kafka_record_headers() {
+        final Map<String, Buffer> recordHeaders = new HashMap<>();
+        recordHeaders.put("tenant", Buffer.buffer("acme"));
+        recordHeaders.put("X-Old", Buffer.buffer("old"));
+        configuration.setHeaderOperations(
+            List.of(
+                new HeaderOperation(HeaderOperationType.COPY, "tenant", "X-Tenant"),
+                new HeaderOperation(HeaderOperationType.MOVE, "X-Old", "X-New")
+            )
+        );
+        configuration.setAppendHeaders(List.of(new HttpHeader("X-Tenant", "emea")));
+
+        runOnKafkaMessage(new TransformHeadersPolicy(configuration), kafkaMessage(recordHeaders)).assertComplete();
+
+        assertThat(recordHeaders).containsOnlyKeys("tenant", "X-Tenant", "X-New");
+        assertThat(recordHeaders.get("tenant")).hasToString("acme");
+        assertThat(recordHeaders.get("X-Tenant")).hasToString("acme,emea");
+        assertThat(recordHeaders.get("X-New")).hasToString("old");
+        verify(templateEngine, never()).eval(any(), any());
+    }
+
+    @Test
+    void should_reuse_pre_encoded_literal_values_for_kafka_records() {
+        final Map<String, Buffer> firstRecordHeaders = new HashMap<>();
+        final Map<String, Buffer> secondRecordHeaders = new HashMap<>();
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Literal", "héllo"), new HttpHeader("X-Expression", "{#value}")));
+        when(templateEngine.eval("{#value}", String.class)).thenReturn(Maybe.just("evaluated"));
+        final TransformHeadersPolicy policy = new TransformHeadersPolicy(configuration);
+
+        runOnKafkaMessage(policy, kafkaMessage(firstRecordHeaders)).assertComplete();
+        runOnKafkaMessage(policy, kafkaMessage(secondRecordHeaders)).assertComplete();
+
+        assertThat(firstRecordHeaders.get("X-Literal").getBytes()).isEqualTo("héllo".getBytes(StandardCharsets.UTF_8));
+        assertThat(secondRecordHeaders.get("X-Literal").toString()).isEqualTo("héllo");
+        assertThat(firstRecordHeaders.get("X-Literal").getNativeBuffer().isReadOnly()).isTrue();
+        assertThat(secondRecordHeaders.get("X-Expression").toString()).isEqualTo("evaluated");
+    }
+
+    @Test
+    void should_append_kafka_record_header_values() {
+        final Map<String, Buffer> recordHeaders = new HashMap<>();
+        recordHeaders.put("X-Existing", Buffer.buffer("a"));
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "added")));
+        configuration.setAppendHeaders(
+            List.of(
+                new HttpHeader("X-Existing", "b"),
+                new HttpHeader("X-Existing", "{#value}"),
+                new HttpHeader("X-Added", "appended"),
+                new HttpHeader("X-New", "new")
+            )
+        );
+        when(templateEngine.eval("{#value}", String.class)).thenReturn(Maybe.just("c"));
+
+        runOnKafkaMessage(new TransformHeadersPolicy(configuration), kafkaMessage(recordHeaders)).assertComplete();
+
+        assertThat(recordHeaders.get("X-Existing").toString()).isEqualTo("a,b,c");
+        assertThat(recordHeaders.get("X-Added").toString()).isEqualTo("added,appended");
+        assertThat(recordHeaders.get("X-New").toString()).isEqualTo("new");
+        assertThat(HeaderExpression.compile("added").toBuffer().toString()).isEqualTo("added");
+    }
+
+    @Test
+    void should_transform_kafka_records_of_a_batch_and_skip_failing_values() {
+        final Map<String, Buffer> firstRecordHeaders = new HashMap<>();
+        final Map<String, Buffer> secondRecordHeaders = new HashMap<>();
+        final KafkaMessage firstRecord = kafkaMessage(firstRecordHeaders);
+        final KafkaMessage secondRecord = kafkaMessage(secondRecordHeaders);
+        firstRecordHeaders.put("X-Removed", Buffer.buffer("removed"));
+        configuration.setAddHeaders(
+            List.of(
+                new HttpHeader("X-Tenant", "{#properties['tenant']}"),
+                new HttpHeader("X-Failing", "{#message.failing}"),
+                new HttpHeader("X-Literal", "literal")
+            )
+        );
+        configuration.setRemoveHeaders(List.of("X-Removed"));
+        when(templateEngine.eval("{#properties['tenant']}", String.class)).thenReturn(Maybe.just("acme"));
+        when(templateEngine.eval("{#message.failing}", String.class)).thenReturn(
+            Maybe.error(new IllegalStateException("boom")),
+            Maybe.just("ok")
+        );
+
+        runOnKafkaMessage(new TransformHeadersPolicy(configuration), firstRecord, secondRecord)
+            .assertComplete()
+            .assertValues(firstRecord, secondRecord);
+
+        assertThat(firstRecordHeaders).containsOnlyKeys("X-Tenant", "X-Literal");
+        assertThat(secondRecordHeaders).containsOnlyKeys("X-Tenant", "X-Failing", "X-Literal");
+        verify(templateEngine, times(1)).eval("{#properties['tenant']}", String.class);
+    }
+
+    @Test
+    void should_interrupt_kafka_records_whose_headers_cannot_be_transformed() {
+        final KafkaMessage record = mock(KafkaMessage.class);
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "added")));
+        when(record.putRecordHeader(any(), any())).thenThrow(new UnsupportedOperationException("read-only"));
+        when(kafkaExecutionContext.interruptWith(Errors.INVALID_RECORD)).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        runOnKafkaMessage(new TransformHeadersPolicy(configuration), record).assertError(RuntimeException.class).assertNoValues();
+
+        verify(kafkaExecutionContext).interruptWith(Errors.INVALID_RECORD);
+    }
+
+    @Test
+    void should_interrupt_kafka_records_whose_asynchronous_transformation_fails() {
+        final Map<String, Buffer> recordHeaders = new HashMap<>();
+        final KafkaMessage record = kafkaMessage(recordHeaders);
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Tenant", "{#properties['tenant']}")));
+        configuration.setRemoveHeaders(List.of("X-Removed"));
+        when(templateEngine.eval("{#properties['tenant']}", String.class)).thenReturn(Maybe.just("acme"));
+        when(record.removeRecordHeader("X-Removed")).thenThrow(new UnsupportedOperationException("read-only"));
+        when(kafkaExecutionContext.interruptWith(Errors.INVALID_RECORD)).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        runOnKafkaMessage(new TransformHeadersPolicy(configuration), record).assertError(RuntimeException.class).assertNoValues();
+
+        verify(kafkaExecutionContext).interruptWith(Errors.INVALID_RECORD);
+    }
+
+    @Test
+    void should_hand_back_same_messages_when_values_are_literals() {
+        final Message message = DefaultMessage.builder().headers(HttpHeaders.create().set("X-Removed", "value")).build();
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "added")));
+        configuration.setRemoveHeaders(List.of("X-Removed"));
+
+        runOnMessages(new TransformHeadersPolicy(configuration), mock(HttpMessageExecutionContext.class), message)
+            .assertComplete()
+            .assertValue(transformed -> transformed == message);
+
+        assertThat(message.headers().get("X-Added")).isEqualTo("added");
+        assertThat(message.headers().contains("X-Removed")).isFalse();
+    }
+
+    @Test
+    void should_interrupt_messages_when_synchronous_transformation_fails() {
+        final Metrics metrics = new Metrics();
+        final HttpMessageExecutionContext messageCtx = mock(HttpMessageExecutionContext.class);
+        final HttpHeaders readOnlyHeaders = mock(HttpHeaders.class);
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Added", "added")));
+        configuration.setReportMetrics(true);
+        when(readOnlyHeaders.set("X-Added", "added")).thenThrow(new UnsupportedOperationException("read-only"));
+        when(messageCtx.metrics()).thenReturn(metrics);
+        when(messageCtx.interruptMessageWith(any(ExecutionFailure.class))).thenReturn(Maybe.error(new RuntimeException("interrupted")));
+
+        final Message transformed = DefaultMessage.builder().headers(HttpHeaders.create()).build();
+
+        runOnMessages(
+            new TransformHeadersPolicy(configuration),
+            messageCtx,
+            transformed,
+            DefaultMessage.builder().headers(readOnlyHeaders).build(),
+            DefaultMessage.builder().headers(HttpHeaders.create()).build()
+        )
+            .assertValues(transformed)
+            .assertError(RuntimeException.class);
+
+        verify(messageCtx).interruptMessageWith(any(ExecutionFailure.class));
+        assertThat(transformed.headers().get("X-Added")).isEqualTo("added");
+        assertThat(metrics.longAdditionalMetrics())
+            .containsEntry("long_transform-headers_message-request_transformations", 2L)
+            .containsEntry("long_transform-headers_message-request_failures", 1L);
+    }
+
+    @Test
+    void should_evaluate_message_invariant_expressions_once_per_flow() {
+        final HttpMessageExecutionContext messageCtx = mock(HttpMessageExecutionContext.class);
+        final TemplateEngine messageTemplateEngine = mock(TemplateEngine.class);
+        final Message firstMessage = DefaultMessage.builder().headers(HttpHeaders.create()).build();
+        final Message secondMessage = DefaultMessage.builder().headers(HttpHeaders.create()).build();
+        configuration.setAddHeaders(
+            List.of(new HttpHeader("X-Tenant", "{#properties['tenant']}"), new HttpHeader("X-Message-Id", "{#message.id}"))
+        );
+        when(messageCtx.getTemplateEngine()).thenReturn(templateEngine);
+        when(messageCtx.getTemplateEngine(any(Message.class))).thenReturn(messageTemplateEngine);
+        when(templateEngine.eval("{#properties['tenant']}", String.class)).thenReturn(Maybe.just("acme"));
+        when(messageTemplateEngine.eval("{#message.id}", String.class)).thenReturn(Maybe.just("message-1"), Maybe.just("message-2"));
+
+        runOnMessages(new TransformHeadersPolicy(configuration), messageCtx, firstMessage, secondMessage)
+            .assertComplete()
+            .assertValues(firstMessage, secondMessage);
+
+        assertThat(firstMessage.headers().get("X-Tenant")).isEqualTo("acme");
+        assertThat(firstMessage.headers().get("X-Message-Id")).isEqualTo("message-1");
+        assertThat(secondMessage.headers().get("X-Tenant")).isEqualTo("acme");
+        assertThat(secondMessage.headers().get("X-Message-Id")).isEqualTo("message-2");
+        verify(templateEngine, times(1)).eval("{#properties['tenant']}", String.class);
+        verify(messageTemplateEngine, never()).eval("{#properties['tenant']}", String.class);
+    }
+
+    /**
+     * Runs the request phase on an event loop and waits for it to complete.
+     *
+     * @return whether it completed on the context the request was handled on.
+     */
+    private boolean onRequestOnEventLoop(final TransformHeadersPolicy policy, final Vertx vertx) throws Exception {
+        final AtomicReference<Context> requestContext = new AtomicReference<>();
+        final CompletableFuture<Context> resumedContext = new CompletableFuture<>();
+        vertx.runOnContext(ignored -> {
+            requestContext.set(Vertx.currentContext());
+            policy
+                .onRequest(ctx)
+                .subscribe(() -> resumedContext.complete(Vertx.currentContext()), resumedContext::completeExceptionally);
+        });
+        return resumedContext.get(5, TimeUnit.SECONDS) == requestContext.get();
+    }
+
+    private static HttpHeader offloaded(final String value, final String fallback) {
+        final HttpHeader header = new HttpHeader("X-Slow", value);
+        header.setOffloaded(true);
+        header.setTimeout(50);
+        header.setFallbackValue(fallback);
+        return header;
+    }
+
+    private TestSubscriber<Message> runOnMessages(
+        final TransformHeadersPolicy policy,
+        final HttpMessageExecutionContext messageCtx,
+        final Message... messages
+    ) {
+        final HttpMessageRequest messageRequest = mock(HttpMessageRequest.class);
+        final TestSubscriber<Message> obs = new TestSubscriber<>();
+        when(messageCtx.request()).thenReturn(messageRequest);
+        when(messageRequest.onMessages(any())).thenAnswer(invocation -> {
+            FlowableTransformer<Message, Message> onMessages = invocation.getArgument(0);
+            Flowable.fromArray(messages).compose(onMessages).subscribe(obs);
+            return Completable.complete();
+        });
+
+        policy.onMessageRequest(messageCtx).test().assertComplete();
+        return obs;
+    }
+
+    private TestSubscriber<KafkaMessage> runOnKafkaMessage(final TransformHeadersPolicy policy, final KafkaMessage... records) {
+        final KafkaMessageExecutionContext kafkaCtx = mock(KafkaMessageExecutionContext.class);
+        final KafkaMessageRequest kafkaRequest = mock(KafkaMessageRequest.class);
+        final TestSubscriber<KafkaMessage> obs = new TestSubscriber<>();
+        when(kafkaCtx.request()).thenReturn(kafkaRequest);
+        lenient().when(kafkaCtx.executionContext()).thenReturn(kafkaExecutionContext);
+        lenient().when(kafkaCtx.getTemplateEngine()).thenReturn(templateEngine);
+        lenient().when(kafkaCtx.getTemplateEngine(any(KafkaMessage.class))).thenReturn(templateEngine);
+        when(kafkaRequest.onMessages(any())).thenAnswer(invocation -> {
+            FlowableTransformer<KafkaMessage, KafkaMessage> onMessages = invocation.getArgument(0);
+            Flowable.fromArray(records).compose(onMessages).subscribe(obs);
+            return Completable.complete();
+        });
+
+        policy.onMessageRequest(kafkaCtx).test().assertComplete();
+        return obs;
+    }
+
+    private KafkaMessage kafkaMessage(final Map<String, Buffer> recordHeaders) {
+        final KafkaMessage message = mock(KafkaMessage.class);
+        lenient().when(message.recordHeaders()).thenReturn(recordHeaders);
+        lenient()
+            .when(message.putRecordHeader(any(), any()))
+            .thenAnswer(invocation -> {
+                recordHeaders.put(invocation.getArgument(0), invocation.getArgument(1));
+                return message;
+            });
+        lenient()
+            .when(message.removeRecordHeader(any()))
+            .thenAnswer(invocation -> {
+                recordHeaders.remove(invocation.<String>getArgument(0));
+                return message;
+            });
+        return message;
+    }
+}
@@ -93,6 +93,43 @@ public class TransformHeadersPolicyConfigurationTest {
         assertThat(configuration.getWhitelistHeaders()).hasSize(2);
     }
 
+    @Test
+    public void test_transformHeaders05() throws IOException {
+        TransformHeadersPolicyConfiguration configuration = load(
+            "/io/gravitee/policy/transformheaders/configuration/transformheaders05.json",
+            TransformHeadersPolicyConfiguration.class
+        );
+
+        assertThat(configuration.getRemoveHeaders()).containsExactly("X-Gravitee-Test");
+        assertThat(configuration.getRequest().getAddHeaders()).hasSize(1);
+        assertThat(configuration.getRequest().getAddHeaders().get(0).getCondition()).isEqualTo("{#request.method == 'GET'}");
+        assertThat(configuration.getResponse().getRemoveHeaders()).containsExactly("Server");
+        assertThat(configuration.getResponse().getWhitelistHeaders()).containsExactly("Content-Type", "X-Gravitee-*");
+        assertThat(configuration.getMessageRequest()).isNull();
+        assertThat(configuration.getMessageResponse()).isNull();
+    }
+
+    @Test
+    public void test_httpHeaderEquality() {
+        HttpHeader header = new HttpHeader("X-Tenant", "{#request.id}", "{#request.method == 'GET'}");
+        HttpHeader same = new HttpHeader("X-Tenant", "{#request.id}", "{#request.method == 'GET'}");
+        assertThat(header).isEqualTo(same).hasSameHashCodeAs(same);
+
+        assertThat(header).isNotEqualTo(new HttpHeader("X-Tenant", "{#request.id}"));
+        assertThat(header).isNotEqualTo(new HttpHeader("X-Tenant", "{#request.path}", "{#request.method == 'GET'}"));
+        same.setCacheTtl(60);
+        assertThat(header).isNotEqualTo(same);
+        same.setCacheTtl(null);
+        same.setOffloaded(true);
+        assertThat(header).isNotEqualTo(same);
+        same.setOffloaded(false);
+        same.setTimeout(50);
+        assertThat(header).isNotEqualTo(same);
+        same.setTimeout(null);
+        same.setFallbackValue("fallback");
+        assertThat(header).isNotEqualTo(same);
+    }
+
     private <T> T load(String resource, Class<T> type) throws IOException {
         URL jsonFile = this.getClass().getResource(resource);
         return new ObjectMapper().readValue(jsonFile, type);
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.policy.transformheaders.configuration.BodyHeader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class BodyValueReaderTest {
+
+    private static final String BODY =
+        "{\"tenant\":{\"id\":\"acme\",\"a/b\":\"slash\"},\"items\":[{\"sku\":\"A-1\",\"qty\":2},[true,null]],\"0\":\"zero\"}";
+
+    @ParameterizedTest
+    @ValueSource(strings = { "/tenant/id", "$.tenant.id", "$['tenant'][\"id\"]", "$.tenant['id']" })
+    void should_read_a_value_from_a_json_pointer_or_path(final String pointer) {
+        assertThat(read(BODY, pointer)).containsExactly("acme");
+    }
+
+    @Test
+    void should_read_values_of_any_scalar_type() {
+        assertThat(read(BODY, "/tenant/a~1b", "/items/0/qty", "$.items[1][0]", "/items/1/1", "/0", "/items")).containsExactly(
+            "slash",
+            "2",
+            "true",
+            null,
+            "zero",
+            null
+        );
+    }
+
+    @Test
+    void should_read_values_split_across_chunks() {
+        for (int size = 1; size < BODY.length(); size++) {
+            final BodyValueReader reader = reader("/tenant/id", "$.items[0].sku");
+            for (int i = 0; i < BODY.length(); i += size) {
+                reader.read(Buffer.buffer(BODY.substring(i, Math.min(BODY.length(), i + size))));
+            }
+            reader.end();
+
+            assertThat(reader.value(0)).isEqualTo("acme");
+            assertThat(reader.value(1)).isEqualTo("A-1");
+        }
+    }
+
+    @Test
+    void should_stop_reading_once_all_values_are_found() {
+        final BodyValueReader reader = reader("/tenant/id");
+
+        assertThat(reader.read(Buffer.buffer("{\"tenant\":{\"id\":\"ac"))).isFalse();
+        assertThat(reader.read(Buffer.buffer("me\"},"))).isTrue();
+        assertThat(reader.read(Buffer.buffer("not json at all"))).isTrue();
+        assertThat(reader.value(0)).isEqualTo("acme");
+    }
+
+    @Test
+    void should_stop_reading_invalid_json() {
+        final BodyValueReader reader = reader("/tenant/id");
+
+        assertThat(reader.read(Buffer.buffer("<tenant><id>acme</id></tenant>"))).isTrue();
+        assertThat(reader.value(0)).isNull();
+    }
+
+    @Test
+    void should_stop_reading_at_the_end_of_the_document() {
+        final BodyValueReader reader = reader("/tenant/id");
+
+        assertThat(reader.read(Buffer.buffer("{\"tenant\":{}}"))).isTrue();
+        assertThat(reader.value(0)).isNull();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "tenant/id", "$..id", "$.tenant.*", "$.items[*]", "$.items[?(@.qty)]", "$.items[0", "$.items[-1]" })
+    void should_ignore_unsupported_pointers(final String pointer) {
+        assertThat(BodyHeaderRule.compile(new BodyHeader("X-Value", pointer))).isNull();
+    }
+
+    private static List<String> read(final String body, final String... pointers) {
+        final BodyValueReader reader = reader(pointers);
+        reader.read(Buffer.buffer(body));
+        reader.end();
+
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < pointers.length; i++) {
+            values.add(reader.value(i));
+        }
+        return values;
+    }
+
+    private static BodyValueReader reader(final String... pointers) {
+        final List<BodyHeaderRule> rules = new ArrayList<>();
+        for (String pointer : pointers) {
+            rules.add(BodyHeaderRule.compile(new BodyHeader("X-Value", pointer)));
+        }
+        return new BodyValueReader(rules);
+    }
+}
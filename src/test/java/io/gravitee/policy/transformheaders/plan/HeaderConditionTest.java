@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.Request;
+import io.gravitee.gateway.api.el.EvaluableRequest;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.reactivex.rxjava3.core.Maybe;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HeaderConditionTest {
+
+    private final HttpHeaders requestHeaders = HttpHeaders.create().add("X-Tenant", "acme").add("X-Tenant", "globex");
+
+    private final HeaderConditionContext context = new HeaderConditionContext(
+        requestHeaders,
+        HttpHeaders.create(),
+        null,
+        HttpMethod.GET,
+        "/orders/42"
+    );
+
+    private TemplateEngine templateEngine;
+
+    @BeforeEach
+    void init() {
+        final Request request = mock(Request.class);
+        when(request.headers()).thenReturn(requestHeaders);
+        when(request.method()).thenReturn(HttpMethod.GET);
+        when(request.path()).thenReturn("/orders/42");
+        templateEngine = TemplateEngine.templateEngine();
+        templateEngine.getTemplateContext().setVariable("request", new EvaluableRequest(request));
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = {
+            "{#request.headers['x-tenant'] != null}",
+            "{#request.headers['X-Missing'] != null}",
+            "{ #request.headers[ 'X-Missing' ] == null }",
+            "{#request.headers['X-Tenant'][0] == 'acme'}",
+            "{#request.headers['X-Tenant'][0] == 'globex'}",
+            "{#request.headers['X-Tenant'][0] != 'acme'}",
+            "{#request.method == 'GET'}",
+            "{#request.method == 'get'}",
+            "{#request.method != 'POST'}",
+            "{#request.path == '/orders/42'}",
+            "{#request.path != '/orders'}",
+            "{#request.path matches '/orders/[0-9]+'}",
+            "{#request.path matches '/orders'}",
+            "true",
+            "false",
+        }
+    )
+    void should_check_directly_as_the_template_engine_evaluates(final String text) {
+        final HeaderCondition condition = HeaderCondition.compile(text);
+
+        assertThat(condition.isDirect()).isTrue();
+        assertThat(condition.test(context)).isEqualTo(templateEngine.evalNow(text, Boolean.class));
+    }
+
+    @Test
+    void should_not_match_a_missing_header_value() {
+        assertThat(HeaderCondition.compile("{#request.headers['X-Missing'][0] == 'acme'}").test(context)).isFalse();
+        assertThat(HeaderCondition.compile("{#request.headers['X-Missing'][0] != 'acme'}").test(context)).isTrue();
+    }
+
+    @Test
+    void should_evaluate_other_conditions_with_the_template_engine() {
+        final HeaderCondition condition = HeaderCondition.compile("{#request.method == 'GET' && #request.path == '/orders/42'}");
+
+        assertThat(condition.isDirect()).isFalse();
+        assertThat(condition.test(context)).isNull();
+        assertThat(condition.evaluate(templateEngine, context).getValue()).isTrue();
+    }
+
+    @Test
+    void should_evaluate_direct_conditions_with_the_template_engine_when_context_is_not_available() {
+        final TemplateEngine mockedTemplateEngine = mock(TemplateEngine.class);
+        when(mockedTemplateEngine.eval("{#message.headers['X-Tenant'] != null}", Boolean.class)).thenReturn(Maybe.just(true));
+
+        final HeaderCondition condition = HeaderCondition.compile("{#message.headers['X-Tenant'] != null}");
+
+        assertThat(condition.test(context)).isNull();
+        assertThat(condition.evaluate(mockedTemplateEngine, context).getValue()).isTrue();
+    }
+
+    @Test
+    void should_not_use_the_template_engine_for_direct_checks() {
+        final TemplateEngine mockedTemplateEngine = mock(TemplateEngine.class);
+
+        assertThat(HeaderCondition.compile("{#request.method == 'GET'}").evaluate(mockedTemplateEngine, context).getValue()).isTrue();
+        verify(mockedTemplateEngine, never()).eval(any(), any());
+    }
+
+    @Test
+    void should_ignore_blank_conditions() {
+        assertThat(HeaderCondition.compile(null)).isNull();
+        assertThat(HeaderCondition.compile("  ")).isNull();
+    }
+
+    @Test
+    void should_leave_invalid_patterns_to_the_template_engine() {
+        assertThat(HeaderCondition.compile("{#request.path matches '/orders/['}").isDirect()).isFalse();
+    }
+}
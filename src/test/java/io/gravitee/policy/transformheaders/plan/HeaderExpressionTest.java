@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import java.nio.ReadOnlyBufferException;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HeaderExpressionTest {
+
+    @Test
+    void should_share_compiled_expressions_with_same_text() {
+        assertThat(HeaderExpression.compile("{#request.id}")).isSameAs(HeaderExpression.compile("{#request.id}"));
+    }
+
+    @Test
+    void should_collect_referenced_variables() {
+        HeaderExpression expression = HeaderExpression.compile("{#jsonPath(#request.content, '$.id')}-{#context.attributes['a']}");
+
+        assertThat(expression.isLiteral()).isFalse();
+        assertThat(expression.references("request")).isTrue();
+        assertThat(expression.references("context")).isTrue();
+        assertThat(expression.references("jsonPath")).isFalse();
+        assertThat(expression.references("message")).isFalse();
+    }
+
+    @Test
+    void should_not_reference_any_variable_when_literal() {
+        HeaderExpression expression = HeaderExpression.compile("#request");
+
+        assertThat(expression.isLiteral()).isTrue();
+        assertThat(expression.references("request")).isFalse();
+    }
+
+    @Test
+    void should_only_be_connection_scoped_when_reading_connection_variables() {
+        assertThat(HeaderExpression.compile("{#request.id}").isConnectionScoped()).isTrue();
+        assertThat(HeaderExpression.compile("{#api.id}-{#properties['a']}-{#dictionaries['d']['k']}-{#node.id}").isConnectionScoped())
+            .isTrue();
+        assertThat(HeaderExpression.compile("{#message.id}").isConnectionScoped()).isFalse();
+        assertThat(HeaderExpression.compile("{#request.id}-{#context.attributes['a']}").isConnectionScoped()).isFalse();
+        assertThat(HeaderExpression.compile("{T(java.util.UUID).randomUUID().toString()}").isConnectionScoped()).isFalse();
+        assertThat(HeaderExpression.compile("{#request.id + T(java.lang.System).nanoTime()}").isConnectionScoped()).isFalse();
+        assertThat(HeaderExpression.compile("{#jsonPath(#request.content, '$.id')}").isConnectionScoped()).isFalse();
+        assertThat(HeaderExpression.compile("{'a' + 'b'}").isConnectionScoped()).isFalse();
+        assertThat(HeaderExpression.compile("#request.id").isConnectionScoped()).isFalse();
+    }
+
+    @Test
+    void should_detect_content_references() {
+        assertThat(HeaderExpression.compile("{#jsonPath(#request.content, '$.id')}").isContentDependent()).isTrue();
+        assertThat(HeaderExpression.compile("{#response['content'].length()}").isContentDependent()).isTrue();
+        assertThat(HeaderExpression.compile("{#request.headers['content'][0]}").isContentDependent()).isFalse();
+        assertThat(HeaderExpression.compile("{#request.contentType}").isContentDependent()).isFalse();
+        assertThat(HeaderExpression.compile("#request.content").isContentDependent()).isFalse();
+    }
+
+    @Test
+    void should_detect_header_reads() {
+        HeaderExpression named = HeaderExpression.compile("{#request.headers['X-Tenant'][0]}-{#message.headers [ 'X-Id' ]}");
+
+        assertThat(named.readsHeader("x-tenant")).isTrue();
+        assertThat(named.readsHeader("X-Id")).isTrue();
+        assertThat(named.readsHeader("X-Other")).isFalse();
+        assertThat(HeaderExpression.compile("{#request.headers.keySet().size()}").readsHeader("X-Other")).isTrue();
+        assertThat(HeaderExpression.compile("{#request['headers']['X-Tenant'][0]}").readsHeader("X-Other")).isTrue();
+        assertThat(HeaderExpression.compile("{#response['content'].length()}").readsHeader("X-Other")).isFalse();
+        assertThat(HeaderExpression.compile("{#context.attributes['X-Tenant']}").readsHeader("X-Tenant")).isFalse();
+        assertThat(HeaderExpression.compile("#request.headers['X-Tenant']").readsHeader("X-Tenant")).isFalse();
+    }
+
+    @Test
+    void should_share_pre_encoded_literal_bytes_between_independent_buffers() {
+        HeaderExpression expression = HeaderExpression.compile("value");
+
+        Buffer first = expression.toBuffer();
+        first.getNativeBuffer().readByte();
+        Buffer second = expression.toBuffer();
+
+        first.appendString("-suffix");
+
+        assertThat(first.toString()).isEqualTo("alue-suffix");
+        assertThat(second.toString()).isEqualTo("value");
+        assertThat(second.getNativeBuffer().isReadOnly()).isTrue();
+        assertThatThrownBy(() -> second.getNativeBuffer().setByte(0, 'V')).isInstanceOf(ReadOnlyBufferException.class);
+        assertThatThrownBy(() -> HeaderExpression.compile("{#request.id}").toBuffer()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void should_evaluate_synchronously() {
+        TemplateEngine templateEngine = TemplateEngine.templateEngine();
+        templateEngine.getTemplateContext().setVariable("tenant", "acme");
+
+        MaybeSubject<String> value = HeaderExpression.compile("tenant-{#tenant}").evaluate(templateEngine);
+
+        assertThat(value.hasValue()).isTrue();
+        assertThat(value.getValue()).isEqualTo("tenant-acme");
+    }
+}
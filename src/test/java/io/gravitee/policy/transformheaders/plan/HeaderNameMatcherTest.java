@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HeaderNameMatcherTest {
+
+    @Test
+    void should_match_names_ignoring_case() {
+        HeaderNameMatcher matcher = new HeaderNameMatcher(List.of("Content-Type", "X-Gravitee-Transaction-Id"));
+
+        assertThat(matcher.matches("content-type")).isTrue();
+        assertThat(matcher.matches("CONTENT-TYPE")).isTrue();
+        assertThat(matcher.matches("x-gravitee-transaction-id")).isTrue();
+        assertThat(matcher.matches("Content-Length")).isFalse();
+        assertThat(matcher.matches("Content-Typ")).isFalse();
+        assertThat(matcher.matches(null)).isFalse();
+    }
+
+    @Test
+    void should_ignore_duplicated_names() {
+        HeaderNameMatcher matcher = new HeaderNameMatcher(List.of("X-Kept", "x-kept", "X-KEPT"));
+
+        assertThat(matcher.isEmpty()).isFalse();
+        assertThat(matcher.matches("X-Kept")).isTrue();
+    }
+
+    @Test
+    void should_match_large_whitelists() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            names.add("X-Header-" + i);
+        }
+
+        HeaderNameMatcher matcher = new HeaderNameMatcher(names);
+
+        for (int i = 0; i < 200; i++) {
+            assertThat(matcher.matches("x-header-" + i)).isTrue();
+        }
+        assertThat(matcher.matches("x-header-200")).isFalse();
+    }
+
+    @Test
+    void should_match_prefix_patterns_ignoring_case() {
+        HeaderNameMatcher matcher = new HeaderNameMatcher(List.of("X-Internal-*", "x-amzn-*", "X-Exact"));
+
+        assertThat(matcher.hasPatterns()).isTrue();
+        assertThat(matcher.matches("X-Internal-Token")).isTrue();
+        assertThat(matcher.matches("x-internal-")).isTrue();
+        assertThat(matcher.matches("X-AMZN-Trace-Id")).isTrue();
+        assertThat(matcher.matches("X-Exact")).isTrue();
+        assertThat(matcher.matches("X-Internal")).isFalse();
+        assertThat(matcher.matches("X-Intern")).isFalse();
+        assertThat(matcher.matchesPattern("X-Exact")).isFalse();
+        assertThat(matcher.matchesPattern("X-Internal-Token")).isTrue();
+    }
+
+    @Test
+    void should_match_wildcards_anywhere_in_patterns() {
+        HeaderNameMatcher matcher = new HeaderNameMatcher(List.of("*-Debug", "X-*-Id", "X-**-Trace*"));
+
+        assertThat(matcher.matches("X-Debug")).isTrue();
+        assertThat(matcher.matches("-debug")).isTrue();
+        assertThat(matcher.matches("X-Request-Id")).isTrue();
+        assertThat(matcher.matches("X-Request-Id-Id")).isTrue();
+        assertThat(matcher.matches("X--Id")).isTrue();
+        assertThat(matcher.matches("X-Amzn-Trace-Id")).isTrue();
+        assertThat(matcher.matches("X-Debugger")).isFalse();
+        assertThat(matcher.matches("X-Id")).isFalse();
+        assertThat(matcher.matches("X-Request-Ids")).isFalse();
+    }
+
+    @Test
+    void should_match_many_inner_wildcards_in_linear_time() {
+        HeaderNameMatcher matcher = new HeaderNameMatcher(List.of("*a*a*a*a*a*a*a*a*a*a*a*a*b", "*a*c"));
+        String name = "a".repeat(200);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            assertThat(matcher.matches(name)).isFalse();
+            assertThat(matcher.matches(name + "b")).isTrue();
+            assertThat(matcher.matches("xac")).isTrue();
+            assertThat(matcher.matches("c")).isFalse();
+        });
+    }
+
+    @Test
+    void should_match_everything_with_a_single_wildcard() {
+        HeaderNameMatcher matcher = new HeaderNameMatcher(List.of("*"));
+
+        assertThat(matcher.isEmpty()).isFalse();
+        assertThat(matcher.matches("X-Any")).isTrue();
+        assertThat(matcher.matches("")).isTrue();
+    }
+
+    @Test
+    void should_not_match_anything_when_empty() {
+        HeaderNameMatcher matcher = new HeaderNameMatcher(List.of());
+
+        assertThat(matcher.isEmpty()).isTrue();
+        assertThat(matcher.matches("X-Any")).isFalse();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.transformheaders.configuration.HttpHeader;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HeaderOffloadTest {
+
+    private static final String SLOW = "{#slow}";
+
+    private static final String CACHED = "{#dictionaries['slow']['value']}";
+
+    private final TemplateEngine templateEngine = mock(TemplateEngine.class);
+
+    private Vertx vertx;
+
+    @BeforeEach
+    void init() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    void close() {
+        vertx.close();
+    }
+
+    @Test
+    void should_not_offload_by_default_nor_literals() {
+        assertThat(new HeaderRule(new HttpHeader("X-Slow", SLOW), 0).isOffloaded()).isFalse();
+        assertThat(new HeaderRule(header("literal", null, null), 0).isOffloaded()).isFalse();
+        assertThat(new HeaderRule(header(SLOW, null, null), 0).isOffloaded()).isTrue();
+    }
+
+    @Test
+    void should_evaluate_on_a_worker_and_complete_on_the_requesting_event_loop() {
+        final AtomicReference<String> evaluatedOn = new AtomicReference<>();
+        when(templateEngine.eval(SLOW, String.class)).thenAnswer(invocation -> {
+            evaluatedOn.set(Thread.currentThread().getName());
+            return Maybe.just("value");
+        });
+        final HeaderRule rule = new HeaderRule(header(SLOW, 1_000, null), 0);
+
+        final AtomicReference<Boolean> completedOnEventLoop = new AtomicReference<>();
+        final TestObserver<String> obs = onEventLoop(() ->
+            rule.evaluate(templateEngine, null, vertx).doOnSuccess(value -> completedOnEventLoop.set(Context.isOnEventLoopThread()))
+        );
+
+        obs.awaitDone(5, TimeUnit.SECONDS).assertValue("value");
+        assertThat(evaluatedOn.get()).contains("worker");
+        assertThat(completedOnEventLoop.get()).isTrue();
+    }
+
+    @Test
+    void should_use_the_fallback_value_on_timeout() {
+        when(templateEngine.eval(SLOW, String.class)).thenReturn(Maybe.never());
+        final HeaderRule rule = new HeaderRule(header(SLOW, 50, "fallback"), 0);
+
+        onEventLoop(() -> rule.evaluate(templateEngine, null, vertx)).awaitDone(5, TimeUnit.SECONDS).assertValue("fallback");
+    }
+
+    @Test
+    void should_skip_the_value_on_timeout_without_fallback() {
+        when(templateEngine.eval(SLOW, String.class)).thenReturn(Maybe.never());
+        final HeaderRule rule = new HeaderRule(header(SLOW, 50, null), 0);
+
+        onEventLoop(() -> rule.evaluate(templateEngine, null, vertx)).awaitDone(5, TimeUnit.SECONDS).assertComplete().assertNoValues();
+    }
+
+    @Test
+    void should_only_cache_values_evaluated_before_the_timeout() {
+        final MaybeSubject<String> late = MaybeSubject.create();
+        when(templateEngine.eval(CACHED, String.class)).thenReturn(late, Maybe.just("in time"));
+        final HttpHeader header = header(CACHED, 50, "fallback");
+        header.setCacheTtl(60);
+        final HeaderRule rule = new HeaderRule(header, 10);
+
+        onEventLoop(() -> rule.evaluate(templateEngine, null, vertx)).awaitDone(5, TimeUnit.SECONDS).assertValue("fallback");
+        late.onSuccess("late");
+
+        onEventLoop(() -> rule.evaluate(templateEngine, null, vertx)).awaitDone(5, TimeUnit.SECONDS).assertValue("in time");
+        onEventLoop(() -> rule.evaluate(templateEngine, null, vertx)).awaitDone(5, TimeUnit.SECONDS).assertValue("in time");
+        verify(templateEngine, times(2)).eval(CACHED, String.class);
+    }
+
+    @Test
+    void should_evaluate_on_the_current_thread_without_vertx() {
+        when(templateEngine.eval(SLOW, String.class)).thenReturn(Maybe.just("value"));
+        final HeaderRule rule = new HeaderRule(header(SLOW, 50, null), 0);
+
+        assertThat(rule.evaluate(templateEngine, null, null).getValue()).isEqualTo("value");
+    }
+
+    private TestObserver<String> onEventLoop(final Supplier<Maybe<String>> evaluation) {
+        final TestObserver<String> obs = new TestObserver<>();
+        vertx.runOnContext(ignored -> evaluation.get().subscribe(obs));
+        return obs;
+    }
+
+    private static HttpHeader header(final String value, final Integer timeout, final String fallback) {
+        final HttpHeader header = new HttpHeader("X-Slow", value);
+        header.setOffloaded(true);
+        header.setTimeout(timeout);
+        header.setFallbackValue(fallback);
+        return header;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.el.TemplateContext;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.transformheaders.configuration.HttpHeader;
+import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HeaderPlansReloaderTest {
+
+    private static final String RULES = "{\"addHeaders\":[{\"name\":\"X-Reloaded\",\"value\":\"%s\"}],\"scope\":\"RESPONSE\"}";
+
+    @Test
+    void should_not_reload_without_source() {
+        final TransformHeadersPolicyConfiguration configuration = configuration();
+        final HeaderPlansReloader reloader = new HeaderPlansReloader(configuration, 0);
+
+        assertThat(reloader.isReloadDue()).isFalse();
+        assertThat(addedValue(reloader.current())).isEqualTo("deployed");
+    }
+
+    @Test
+    void should_not_read_rules_from_the_file_system() {
+        final TransformHeadersPolicyConfiguration configuration = configuration();
+        configuration.setRulesDictionaryKey("/etc/passwd");
+
+        final HeaderPlansReloader reloader = new HeaderPlansReloader(configuration, 0);
+
+        assertThat(reloader.isReloadDue()).isFalse();
+        assertThat(addedValue(reloader.current())).isEqualTo("deployed");
+    }
+
+    @Test
+    void should_reload_the_rules_from_a_dictionary_when_its_value_changes() {
+        final TransformHeadersPolicyConfiguration configuration = configuration();
+        configuration.setRulesDictionary("headers");
+        configuration.setRulesDictionaryKey("my-api");
+        final Map<String, String> entries = new HashMap<>();
+        final TemplateEngine templateEngine = templateEngine(Map.of("headers", entries));
+
+        final HeaderPlansReloader reloader = new HeaderPlansReloader(configuration, 0);
+        assertThat(reloader.isReloadDue()).isTrue();
+        assertThat(addedValue(reloader.reload(templateEngine))).isEqualTo("deployed");
+
+        entries.put("my-api", String.format(RULES, "v1"));
+        final HeaderTransformationPlans loaded = reloader.reload(templateEngine);
+        assertThat(addedValue(loaded)).isEqualTo("v1");
+        assertThat(reloader.reload(templateEngine)).isSameAs(loaded);
+
+        entries.put("my-api", "not json");
+        assertThat(reloader.reload(templateEngine)).isSameAs(loaded);
+    }
+
+    @Test
+    void should_only_check_the_source_once_per_interval() {
+        final TransformHeadersPolicyConfiguration configuration = configuration();
+        configuration.setRulesDictionary("headers");
+        configuration.setRulesDictionaryKey("my-api");
+        final TemplateEngine templateEngine = templateEngine(Map.of("headers", Map.of("my-api", String.format(RULES, "v1"))));
+
+        final HeaderPlansReloader reloader = new HeaderPlansReloader(configuration, Long.MAX_VALUE / 2);
+        assertThat(addedValue(reloader.reload(templateEngine))).isEqualTo("v1");
+        assertThat(reloader.isReloadDue()).isFalse();
+    }
+
+    private static TransformHeadersPolicyConfiguration configuration() {
+        final TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setAddHeaders(List.of(new HttpHeader("X-Reloaded", "deployed")));
+        return configuration;
+    }
+
+    private static TemplateEngine templateEngine(final Map<String, ?> dictionaries) {
+        final TemplateEngine templateEngine = mock(TemplateEngine.class);
+        final TemplateContext templateContext = mock(TemplateContext.class);
+        when(templateEngine.getTemplateContext()).thenReturn(templateContext);
+        when(templateContext.lookupVariable("dictionaries")).thenReturn(dictionaries);
+        return templateEngine;
+    }
+
+    private static String addedValue(final HeaderTransformationPlans plans) {
+        return plans.getPlan().getAddHeaders().get(0).getValue().getExpression();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import io.gravitee.policy.transformheaders.configuration.HeaderOperation;
+import io.gravitee.policy.transformheaders.configuration.HeaderOperationType;
+import io.gravitee.policy.transformheaders.configuration.HeaderRemoval;
+import io.gravitee.policy.transformheaders.configuration.HttpHeader;
+import io.gravitee.policy.transformheaders.configuration.PolicyScope;
+import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HeaderTransformationPlanTest {
+
+    @Test
+    void should_compile_empty_configuration() {
+        HeaderTransformationPlan plan = HeaderTransformationPlan.compile(new TransformHeadersPolicyConfiguration());
+
+        assertThat(plan.getScope()).isEqualTo(PolicyScope.REQUEST);
+        assertThat(plan.getAddHeaders()).isEmpty();
+        assertThat(plan.getAppendHeaders()).isEmpty();
+        assertThat(plan.getRemoveHeaders()).isEmpty();
+        assertThat(plan.hasWhitelist()).isFalse();
+    }
+
+    @Test
+    void should_default_to_request_scope() {
+        TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setScope(null);
+
+        assertThat(HeaderTransformationPlan.compile(configuration).getScope()).isEqualTo(PolicyScope.REQUEST);
+    }
+
+    @Test
+    void should_skip_invalid_rules_and_trim_names() {
+        TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setAddHeaders(
+            Arrays.asList(
+                new HttpHeader(" X-Added ", "value"),
+                new HttpHeader(null, "value"),
+                new HttpHeader("  ", "value"),
+                new HttpHeader("X-Null", null),
+                null
+            )
+        );
+        configuration.setAppendHeaders(List.of(new HttpHeader("X-Appended", "{#request.id}")));
+
+        HeaderTransformationPlan plan = HeaderTransformationPlan.compile(configuration);
+
+        assertThat(plan.getAddHeaders()).extracting(HeaderRule::getName, rule -> rule.getValue().getExpression()).containsExactly(
+            tuple("X-Added", "value")
+        );
+        assertThat(plan.getAppendHeaders()).extracting(HeaderRule::getName).containsExactly("X-Appended");
+    }
+
+    @Test
+    void should_skip_invalid_header_operations_and_trim_names() {
+        TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setHeaderOperations(
+            Arrays.asList(
+                new HeaderOperation(HeaderOperationType.COPY, " tenant ", " X-Tenant "),
+                new HeaderOperation(HeaderOperationType.MOVE, "X-Old", "X-New"),
+                new HeaderOperation(HeaderOperationType.MOVE, "X-Same", "x-same"),
+                new HeaderOperation(HeaderOperationType.COPY, null, "X-Target"),
+                new HeaderOperation(HeaderOperationType.COPY, "X-Source", " "),
+                null
+            )
+        );
+
+        HeaderTransformationPlan plan = HeaderTransformationPlan.compile(configuration);
+
+        assertThat(plan.getCopyHeaders()).extracting(HeaderCopy::getSource, HeaderCopy::getTarget, HeaderCopy::isMove).containsExactly(
+            tuple("tenant", "X-Tenant", false),
+            tuple("X-Old", "X-New", true)
+        );
+    }
+
+    @Test
+    void should_skip_blank_remove_headers() {
+        TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setRemoveHeaders(Arrays.asList("X-Removed", null, " ", "X-Removed"));
+
+        assertThat(HeaderTransformationPlan.compile(configuration).getRemoveHeaders()).containsExactly("X-Removed");
+    }
+
+    @Test
+    void should_match_whitelist_ignoring_case() {
+        TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setWhitelistHeaders(Arrays.asList("X-Kept", null));
+
+        HeaderTransformationPlan plan = HeaderTransformationPlan.compile(configuration);
+
+        assertThat(plan.hasWhitelist()).isTrue();
+        assertThat(plan.getWhitelist().matches("x-kept")).isTrue();
+        assertThat(plan.getWhitelist().matches("X-KEPT")).isTrue();
+        assertThat(plan.getWhitelist().matches("X-Other")).isFalse();
+        assertThat(plan.getWhitelist().matches(null)).isFalse();
+    }
+
+    @Test
+    void should_not_be_affected_by_later_configuration_changes() {
+        TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setAddHeaders(new ArrayList<>(List.of(new HttpHeader("X-Added", "value"))));
+
+        HeaderTransformationPlan plan = HeaderTransformationPlan.compile(configuration);
+        configuration.getAddHeaders().add(new HttpHeader("X-Other", "value"));
+
+        assertThat(plan.getAddHeaders()).hasSize(1);
+    }
+
+    @Test
+    void should_detect_literal_values() {
+        TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setAddHeaders(
+            List.of(
+                new HttpHeader("X-Literal", "prod"),
+                new HttpHeader("X-Braces", "{prod}"),
+                new HttpHeader("X-El", "v-{#request.id}"),
+                new HttpHeader("X-Spaced-El", "{ #request.id}"),
+                new HttpHeader("X-Type-El", "{T(java.lang.Math).random()}")
+            )
+        );
+
+        HeaderTransformationPlan plan = HeaderTransformationPlan.compile(configuration);
+
+        assertThat(plan.getAddHeaders()).extracting(HeaderRule::isLiteral).containsExactly(true, true, false, false, false);
+    }
+
+    @Test
+    void should_depend_on_the_last_previous_rule_writing_a_header_read() {
+        TransformHeadersPolicyConfiguration configuration = new TransformHeadersPolicyConfiguration();
+        configuration.setAddHeaders(
+            List.of(
+                new HttpHeader("X-Tenant", "{#context.attributes['tenant']}"),
+                new HttpHeader("X-Region", "{#context.attributes['region']}"),
+                new HttpHeader("X-Key", "{#request.headers['x-tenant'][0]}"),
+                new HttpHeader("X-Other", "{#context.attributes['other']}", "{#request.headers['X-Region'] != null}"),
+                new HttpHeader("X-All", "{#request.headers.size()}")
+            )
+        );
+        configuration.setConditionalRemoveHeaders(
+            List.of(new HeaderRemoval("X-Removed", null), new HeaderRemoval("X-Other", "{#request.headers['X-Removed'] == null}"))
+        );
+
+        HeaderTransformationPlan plan = HeaderTransformationPlan.compile(configuration);
+
+        assertThat(plan.getAddHeaders()).extracting(HeaderRule::getDependency).containsExactly(-1, -1, 0, 1, 3);
+        assertThat(plan.getConditionalRemoveHeaders()).extracting(HeaderRule::getDependency).containsExactly(-1, 0);
+    }
+}
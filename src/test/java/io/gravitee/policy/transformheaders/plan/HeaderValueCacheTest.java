@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.transformheaders.plan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HeaderValueCacheTest {
+
+    private static final String TENANT = "{#dictionaries['tenants'][#request.headers['X-Key'][0]]}";
+
+    @Test
+    void should_only_cache_expressions_reading_request_headers_method_path_or_shared_variables() {
+        assertThat(compile(TENANT, 60)).isNotNull();
+        assertThat(compile("{#api.properties['backend']}", 60)).isNotNull();
+        assertThat(compile("{#properties['backend']}{#request.path}-{#request.method}", 60)).isNotNull();
+
+        assertThat(compile(TENANT, null)).isNull();
+        assertThat(compile(TENANT, 0)).isNull();
+        assertThat(compile("literal", 60)).isNull();
+        assertThat(compile("{#request.id}", 60)).isNull();
+        assertThat(compile("{#request.headers.getFirst('X-Key')}", 60)).isNull();
+        assertThat(compile("{#context.attributes['tenant']}", 60)).isNull();
+    }
+
+    @Test
+    void should_key_on_the_values_read_from_the_request() {
+        HeaderValueCache cache = compile(TENANT + "{#request.method}", 60);
+        HttpHeaders headers = HttpHeaders.create().set("X-Key", "a").set("X-Other", "1");
+
+        Object key = cache.key(context(headers, HttpMethod.GET));
+        headers.set("X-Other", "2");
+        assertThat(cache.key(context(headers, HttpMethod.GET))).isEqualTo(key);
+
+        headers.set("x-key", "b");
+        assertThat(cache.key(context(headers, HttpMethod.GET))).isNotEqualTo(key);
+        headers.set("X-Key", "a");
+        assertThat(cache.key(context(headers, HttpMethod.POST))).isNotEqualTo(key);
+        assertThat(cache.key(null)).isNull();
+        assertThat(compile("{#dictionaries['tenants']['default']}", 60).key(null)).isNotNull();
+    }
+
+    @Test
+    void should_expire_results_after_their_ttl() throws InterruptedException {
+        HeaderValueCache cache = compile(TENANT, 1);
+        cache.put("key", "acme");
+
+        assertThat(cache.get("key")).isEqualTo("acme");
+        Thread.sleep(1_100);
+        assertThat(cache.get("key")).isNull();
+
+        cache.put("key", "other");
+        assertThat(cache.get("key")).isEqualTo("other");
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.hits()).isEqualTo(2);
+        assertThat(cache.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void should_evict_results_not_read_since_inserted_first() {
+        HeaderValueCache cache = HeaderValueCache.compile(HeaderExpression.compile(TENANT), 60, 2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+
+        cache.put("c", "3");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo("1");
+        assertThat(cache.get("c")).isEqualTo("3");
+    }
+
+    @Test
+    void should_evaluate_once_per_key_through_the_rule() {
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        MaybeSubject<String> asyncValue = MaybeSubject.create();
+        when(templateEngine.eval(TENANT, String.class)).thenReturn(asyncValue, Maybe.just("globex"));
+        HeaderRule rule = new HeaderRule("X-Tenant", TENANT, null, 60, 10);
+
+        MaybeSubject<String> first = rule.evaluate(templateEngine, context(HttpHeaders.create().set("X-Key", "a"), null));
+        asyncValue.onSuccess("acme");
+        MaybeSubject<String> second = rule.evaluate(templateEngine, context(HttpHeaders.create().set("X-Key", "a"), null));
+        MaybeSubject<String> third = rule.evaluate(templateEngine, context(HttpHeaders.create().set("X-Key", "b"), null));
+
+        assertThat(first.getValue()).isEqualTo("acme");
+        assertThat(second.getValue()).isEqualTo("acme");
+        assertThat(third.getValue()).isEqualTo("globex");
+        verify(templateEngine, times(2)).eval(TENANT, String.class);
+        assertThat(rule.getCache().hits()).isEqualTo(1);
+        assertThat(rule.getCache().misses()).isEqualTo(2);
+    }
+
+    @Test
+    void should_not_count_checking_a_cached_result_as_a_hit_or_a_miss() {
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.eval(TENANT, String.class)).thenReturn(Maybe.just("acme"));
+        HeaderRule rule = new HeaderRule("X-Tenant", TENANT, null, 60, 10);
+        HeaderConditionContext context = context(HttpHeaders.create().set("X-Key", "a"), null);
+
+        assertThat(rule.isCacheable(context)).isTrue();
+        assertThat(rule.isCacheable(null)).isFalse();
+        assertThat(rule.isCached(context)).isFalse();
+        rule.evaluate(templateEngine, context);
+        assertThat(rule.isCached(context)).isTrue();
+
+        assertThat(rule.getCache().hits()).isZero();
+        assertThat(rule.getCache().misses()).isEqualTo(1);
+    }
+
+    private static HeaderValueCache compile(final String value, final Integer ttl) {
+        return HeaderValueCache.compile(HeaderExpression.compile(value), ttl, 10);
+    }
+
+    private static HeaderConditionContext context(final HttpHeaders requestHeaders, final HttpMethod method) {
+        return new HeaderConditionContext(requestHeaders, null, null, method, "/path");
+    }
+}
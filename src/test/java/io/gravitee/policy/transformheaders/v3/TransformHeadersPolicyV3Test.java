@@ -21,29 +21,48 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import io.gravitee.common.http.HttpMethod;
 import io.gravitee.el.TemplateEngine;
 import io.gravitee.gateway.api.ExecutionContext;
 import io.gravitee.gateway.api.Request;
 import io.gravitee.gateway.api.Response;
 import io.gravitee.gateway.api.buffer.Buffer;
 import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.gateway.api.stream.ReadWriteStream;
 import io.gravitee.policy.api.PolicyChain;
+import io.gravitee.policy.transformheaders.configuration.BodyHeader;
+import io.gravitee.policy.transformheaders.configuration.HeaderOperation;
+import io.gravitee.policy.transformheaders.configuration.HeaderOperationType;
+import io.gravitee.policy.transformheaders.configuration.HeaderRemoval;
 import io.gravitee.policy.transformheaders.configuration.HttpHeader;
 import io.gravitee.policy.transformheaders.configuration.PolicyScope;
 import io.gravitee.policy.transformheaders.configuration.TransformHeadersPolicyConfiguration;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
+import org.mockito.MockedConstruction;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 /**
@@ -55,8 +74,6 @@ import org.mockito.junit.jupiter.MockitoExtension;
 @DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
 public class TransformHeadersPolicyV3Test {
 
-    private TransformHeadersPolicyV3 transformHeadersPolicy;
-
     @Mock
     private TransformHeadersPolicyConfiguration transformHeadersPolicyConfiguration;
 
@@ -80,7 +97,6 @@ public class TransformHeadersPolicyV3Test {
 
     @BeforeEach
     public void init() {
-        transformHeadersPolicy = new TransformHeadersPolicyV3(transformHeadersPolicyConfiguration);
         lenient().when(executionContext.getTemplateEngine()).thenReturn(templateEngine);
         lenient().when(request.headers()).thenReturn(requestHttpHeaders);
         lenient().when(response.headers()).thenReturn(responseHttpHeaders);
@@ -89,14 +105,14 @@ public class TransformHeadersPolicyV3Test {
 
     @Test
     void test_OnRequest_noTransformation() {
-        transformHeadersPolicy.onRequest(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
 
         verify(policyChain).doNext(request, response);
     }
 
     @Test
     void test_OnResponse_noTransformation() {
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         verify(policyChain).doNext(request, response);
     }
@@ -104,19 +120,27 @@ public class TransformHeadersPolicyV3Test {
     @Test
     void test_OnRequest_invalidScope() {
         when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.RESPONSE);
-        transformHeadersPolicy.onRequest(request, response, executionContext, policyChain);
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            Collections.singletonList(new HttpHeader("X-Gravitee-Test", "Value"))
+        );
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
 
-        verify(transformHeadersPolicyConfiguration, never()).getAddHeaders();
+        verify(executionContext, never()).getTemplateEngine();
         verify(policyChain).doNext(request, response);
+        assertThat(requestHttpHeaders.getFirst("X-Gravitee-Test")).isNull();
     }
 
     @Test
     void test_OnResponse_invalidScope() {
         when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST);
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            Collections.singletonList(new HttpHeader("X-Gravitee-Test", "Value"))
+        );
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
-        verify(transformHeadersPolicyConfiguration, never()).getAddHeaders();
+        verify(executionContext, never()).getTemplateEngine();
         verify(policyChain).doNext(request, response);
+        assertThat(responseHttpHeaders.getFirst("X-Gravitee-Test")).isNull();
     }
 
     @Test
@@ -127,13 +151,28 @@ public class TransformHeadersPolicyV3Test {
         );
 
         // Run
-        transformHeadersPolicy.onRequest(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
         assertThat(requestHttpHeaders.getFirst("X-Gravitee-Test")).isEqualTo("Value");
     }
 
+    @Test
+    void test_OnRequest_addHeader_literalValue() {
+        // Prepare
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            Collections.singletonList(new HttpHeader("X-Gravitee-Test", "Value"))
+        );
+
+        // Run
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
+
+        // Verify
+        verify(templateEngine, never()).convert(any(String.class));
+        assertThat(requestHttpHeaders.getFirst("X-Gravitee-Test")).isEqualTo("Value");
+    }
+
     @Test
     void test_OnResponse_addHeader() {
         // Prepare
@@ -144,7 +183,7 @@ public class TransformHeadersPolicyV3Test {
         );
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -160,7 +199,7 @@ public class TransformHeadersPolicyV3Test {
         );
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -176,7 +215,7 @@ public class TransformHeadersPolicyV3Test {
         );
 
         // Run
-        transformHeadersPolicy.onRequest(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -192,7 +231,7 @@ public class TransformHeadersPolicyV3Test {
         );
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -205,7 +244,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(Collections.singletonList(new HttpHeader(null, "Value")));
 
         // Run
-        transformHeadersPolicy.onRequest(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -219,7 +258,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(Collections.singletonList(new HttpHeader(null, "Value")));
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -235,7 +274,7 @@ public class TransformHeadersPolicyV3Test {
         );
 
         // Run
-        transformHeadersPolicy.onRequest(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -252,7 +291,7 @@ public class TransformHeadersPolicyV3Test {
         );
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -266,7 +305,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getRemoveHeaders()).thenReturn(Collections.singletonList("X-Gravitee-Test"));
 
         // Run
-        transformHeadersPolicy.onRequest(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -282,13 +321,180 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getRemoveHeaders()).thenReturn(Collections.singletonList("X-Gravitee-Test"));
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
         assertThat(responseHttpHeaders.getFirst("X-Gravitee-Test")).isNull();
     }
 
+    @Test
+    void test_OnRequest_removeHeaderPattern() {
+        // Prepare
+        requestHttpHeaders.set("X-Internal-Token", "Initial");
+        requestHttpHeaders.set("x-internal-user", "Initial");
+        requestHttpHeaders.set("X-Internal", "Initial");
+        when(transformHeadersPolicyConfiguration.getRemoveHeaders()).thenReturn(Collections.singletonList("X-Internal-*"));
+
+        // Run
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
+
+        // Verify
+        verify(policyChain).doNext(request, response);
+        assertThat(requestHttpHeaders.getFirst("X-Internal-Token")).isNull();
+        assertThat(requestHttpHeaders.getFirst("X-Internal-User")).isNull();
+        assertThat(requestHttpHeaders.getFirst("X-Internal")).isEqualTo("Initial");
+    }
+
+    @Test
+    void test_OnRequest_copyAndMoveHeaders() {
+        // Prepare
+        requestHttpHeaders.add("tenant", "acme");
+        requestHttpHeaders.add("tenant", "globex");
+        requestHttpHeaders.set("X-Old", "Initial");
+        requestHttpHeaders.set("X-New", "Replaced");
+        when(transformHeadersPolicyConfiguration.getHeaderOperations()).thenReturn(
+            List.of(
+                new HeaderOperation(HeaderOperationType.COPY, "tenant", "X-Forwarded-Tenant"),
+                new HeaderOperation(HeaderOperationType.MOVE, "X-Old", "X-New"),
+                new HeaderOperation(HeaderOperationType.MOVE, "X-Missing", "X-Other")
+            )
+        );
+
+        // Run
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
+
+        // Verify
+        verify(policyChain).doNext(request, response);
+        verify(executionContext, never()).getTemplateEngine();
+        assertThat(requestHttpHeaders.getAll("X-Forwarded-Tenant")).containsExactly("acme", "globex");
+        assertThat(requestHttpHeaders.getAll("tenant")).containsExactly("acme", "globex");
+        assertThat(requestHttpHeaders.getAll("X-New")).containsExactly("Initial");
+        assertThat(requestHttpHeaders.contains("X-Old")).isFalse();
+        assertThat(requestHttpHeaders.contains("X-Other")).isFalse();
+    }
+
+    @Test
+    void test_OnRequest_conditionalHeaders() {
+        // Prepare
+        requestHttpHeaders.set("X-Debug", "true");
+        requestHttpHeaders.set("X-Internal", "Initial");
+        when(executionContext.request()).thenReturn(request);
+        when(executionContext.response()).thenReturn(response);
+        when(request.method()).thenReturn(HttpMethod.GET);
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            List.of(
+                new HttpHeader("X-Skipped", "skipped", "{#request.headers['X-Missing'] != null}"),
+                new HttpHeader("X-Debug-Id", "debug", "{#request.headers['X-Debug'][0] == 'true'}")
+            )
+        );
+        when(transformHeadersPolicyConfiguration.getConditionalRemoveHeaders()).thenReturn(
+            List.of(new HeaderRemoval("X-Internal", "{#request.method == 'GET'}"))
+        );
+
+        // Run
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
+
+        // Verify
+        verify(policyChain).doNext(request, response);
+        verify(executionContext, never()).getTemplateEngine();
+        assertThat(requestHttpHeaders.getFirst("X-Skipped")).isNull();
+        assertThat(requestHttpHeaders.getFirst("X-Debug-Id")).isEqualTo("debug");
+        assertThat(requestHttpHeaders.getFirst("X-Internal")).isNull();
+    }
+
+    @Test
+    void test_OnRequest_directlyReadValues() {
+        // Prepare
+        requestHttpHeaders.set("X-Source", "first");
+        requestHttpHeaders.add("X-Source", "second");
+        when(executionContext.request()).thenReturn(request);
+        when(executionContext.response()).thenReturn(response);
+        when(request.path()).thenReturn("/path");
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            List.of(
+                new HttpHeader("X-Copy", "{#request.headers['X-Source'][0]}"),
+                new HttpHeader("X-Missing", "{#request.headers['X-Missing'][0]}"),
+                new HttpHeader("X-Path", "{ #request.path }")
+            )
+        );
+
+        try (MockedConstruction<EvaluationFailures> failures = mockConstruction(EvaluationFailures.class)) {
+            // Run
+            transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
+
+            // Verify
+            verify(policyChain).doNext(request, response);
+            verify(executionContext, never()).getTemplateEngine();
+            assertThat(requestHttpHeaders.getFirst("X-Copy")).isEqualTo("first");
+            assertThat(requestHttpHeaders.contains("X-Missing")).isFalse();
+            assertThat(requestHttpHeaders.getFirst("X-Path")).isEqualTo("/path");
+            verify(failures.constructed().get(0), never()).record();
+        }
+    }
+
+    @Test
+    void test_OnRequest_countEvaluationFailures() {
+        // Prepare
+        when(executionContext.request()).thenReturn(request);
+        when(templateEngine.eval("{#request.id.foo}", String.class)).thenReturn(Maybe.error(new IllegalStateException("boom")));
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(List.of(new HttpHeader("X-Failing", "{#request.id.foo}")));
+
+        try (
+            MockedConstruction<EvaluationFailures> failures = mockConstruction(EvaluationFailures.class, (mock, context) ->
+                when(mock.record()).thenReturn(0L, EvaluationFailures.NOT_SAMPLED)
+            )
+        ) {
+            final TransformHeadersPolicyV3 policy = transformHeadersPolicy();
+
+            // Run
+            policy.onRequest(request, response, executionContext, policyChain);
+            policy.onRequest(request, response, executionContext, policyChain);
+            policy.onRequest(request, response, executionContext, policyChain);
+
+            // Verify
+            assertThat(requestHttpHeaders.contains("X-Failing")).isFalse();
+            verify(failures.constructed().get(0), times(3)).record();
+            verify(request, times(1)).id();
+        }
+    }
+
+    @Test
+    void test_OnRequest_evaluatePendingValuesOnce() {
+        // Prepare
+        when(templateEngine.eval("{#pending}", String.class)).thenReturn(Maybe.never());
+        when(templateEngine.eval("{#pending == 'a'}", Boolean.class)).thenReturn(Maybe.never());
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            List.of(new HttpHeader("X-Pending", "{#pending}"), new HttpHeader("X-Conditional", "value", "{#pending == 'a'}"))
+        );
+
+        // Run
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
+
+        // Verify
+        verify(policyChain).doNext(request, response);
+        assertThat(requestHttpHeaders.contains("X-Pending")).isFalse();
+        assertThat(requestHttpHeaders.contains("X-Conditional")).isFalse();
+        verify(templateEngine).eval("{#pending}", String.class);
+        verify(templateEngine).eval("{#pending == 'a'}", Boolean.class);
+        verify(templateEngine, never()).convert(any(String.class));
+        verify(templateEngine, never()).getValue(any(String.class), any());
+    }
+
+    @Test
+    void test_sampleEvaluationFailures() throws InterruptedException {
+        final EvaluationFailures failures = new EvaluationFailures(0);
+        assertThat(failures.record()).isZero();
+        assertThat(failures.record()).isZero();
+
+        final EvaluationFailures sampled = new EvaluationFailures(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(sampled.record()).isZero();
+        assertThat(sampled.record()).isEqualTo(EvaluationFailures.NOT_SAMPLED);
+        assertThat(sampled.record()).isEqualTo(EvaluationFailures.NOT_SAMPLED);
+        Thread.sleep(150);
+        assertThat(sampled.record()).isEqualTo(2);
+    }
+
     @Test
     void test_OnResponse_removeHeaderNull() {
         // Prepare
@@ -298,7 +504,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getRemoveHeaders()).thenReturn(Collections.singletonList(null));
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -317,7 +523,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getWhitelistHeaders()).thenReturn(Collections.singletonList("X-Gravitee-White"));
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -333,7 +539,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.RESPONSE);
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -347,7 +553,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST);
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -363,7 +569,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getWhitelistHeaders()).thenReturn(Collections.singletonList("X-White"));
 
         // Run
-        transformHeadersPolicy.onResponse(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onResponse(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -380,7 +586,7 @@ public class TransformHeadersPolicyV3Test {
         when(transformHeadersPolicyConfiguration.getWhitelistHeaders()).thenReturn(Collections.singletonList("X-White"));
 
         // Run
-        transformHeadersPolicy.onRequest(request, response, executionContext, policyChain);
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
 
         // Verify
         verify(policyChain).doNext(request, response);
@@ -388,6 +594,42 @@ public class TransformHeadersPolicyV3Test {
         assertThat(requestHttpHeaders.getFirst("X-White")).isNotNull();
     }
 
+    @Test
+    void test_OnRequest_whitelistHeaderPattern() {
+        // Prepare
+        requestHttpHeaders.set("x-walter", "Initial");
+        requestHttpHeaders.set("x-amzn-trace-id", "Initial");
+        when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST);
+        when(transformHeadersPolicyConfiguration.getWhitelistHeaders()).thenReturn(Collections.singletonList("X-Amzn-*"));
+
+        // Run
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
+
+        // Verify
+        verify(policyChain).doNext(request, response);
+        assertThat(requestHttpHeaders.getFirst("X-Walter")).isNull();
+        assertThat(requestHttpHeaders.getFirst("X-Amzn-Trace-Id")).isNotNull();
+    }
+
+    @Test
+    void test_OnRequest_whitelistHeader_keepAllValues() {
+        // Prepare
+        requestHttpHeaders.add("x-white", "first");
+        requestHttpHeaders.set("x-walter", "Initial");
+        requestHttpHeaders.add("x-white", "second");
+        requestHttpHeaders.set("x-wanda", "Initial");
+        when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST);
+        when(transformHeadersPolicyConfiguration.getWhitelistHeaders()).thenReturn(Collections.singletonList("X-White"));
+
+        // Run
+        transformHeadersPolicy().onRequest(request, response, executionContext, policyChain);
+
+        // Verify
+        verify(policyChain).doNext(request, response);
+        assertThat(requestHttpHeaders.names()).containsExactly("x-white");
+        assertThat(requestHttpHeaders.getAll("X-White")).containsExactly("first", "second");
+    }
+
     @Test
     void test_OnRequestContent_addHeader() {
         // Prepare
@@ -429,4 +671,245 @@ public class TransformHeadersPolicyV3Test {
         // Verify
         assertThat(responseHttpHeaders.getFirst("X-Product-Id")).isNotNull().isEqualTo("1234");
     }
+
+    @Test
+    void test_OnRequestContent_emptyContent() {
+        // Prepare
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            Collections.singletonList(new HttpHeader("X-Empty", "{#request.content == '' ? 'empty' : 'not empty'}"))
+        );
+        when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST_CONTENT);
+        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
+        when(executionContext.request()).thenReturn(request);
+
+        // Run
+        transformHeadersPolicy().onRequestContent(executionContext).end();
+
+        // Verify
+        assertThat(requestHttpHeaders.getFirst("X-Empty")).isEqualTo("empty");
+    }
+
+    @Test
+    void test_OnRequestContent_streamContentNotReadByExpressions() {
+        // Prepare
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            Collections.singletonList(new HttpHeader("X-Gravitee-Test", "Value"))
+        );
+        when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST_CONTENT);
+        when(executionContext.request()).thenReturn(request);
+        List<String> chunks = new ArrayList<>();
+
+        // Run
+        ReadWriteStream<Buffer> stream = transformHeadersPolicy().onRequestContent(executionContext);
+        stream.bodyHandler(chunk -> {
+            assertThat(requestHttpHeaders.getFirst("X-Gravitee-Test")).isEqualTo("Value");
+            chunks.add(chunk.toString());
+        });
+        stream.write(Buffer.buffer("chunk-1"));
+
+        // Verify
+        assertThat(chunks).containsExactly("chunk-1");
+
+        stream.write(Buffer.buffer("chunk-2")).end();
+        assertThat(chunks).containsExactly("chunk-1", "chunk-2");
+    }
+
+    @Test
+    void test_OnRequestContent_streamContentLargerThanMaxContentSize() {
+        // Prepare
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            List.of(
+                new HttpHeader("X-Product-Id", "{#jsonPath(#request.content, '$.product.id')}"),
+                new HttpHeader("X-Gravitee-Test", "Value")
+            )
+        );
+        when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST_CONTENT);
+        when(transformHeadersPolicyConfiguration.getMaxContentSize()).thenReturn(10);
+        when(executionContext.request()).thenReturn(request);
+        List<String> chunks = new ArrayList<>();
+
+        // Run
+        ReadWriteStream<Buffer> stream = transformHeadersPolicy().onRequestContent(executionContext);
+        stream.bodyHandler(chunk -> chunks.add(chunk.toString()));
+        stream.write(Buffer.buffer("{\"product\":"));
+        stream.write(Buffer.buffer("{\"id\":\"1234\"}}")).end();
+
+        // Verify
+        assertThat(chunks).containsExactly("{\"product\":", "{\"id\":\"1234\"}}");
+        assertThat(requestHttpHeaders.getFirst("X-Gravitee-Test")).isEqualTo("Value");
+        assertThat(requestHttpHeaders.contains("X-Product-Id")).isFalse();
+    }
+
+    @Test
+    void test_OnRequestContent_readHeadersFromBody() {
+        // Prepare
+        when(transformHeadersPolicyConfiguration.getBodyHeaders()).thenReturn(
+            List.of(new BodyHeader("X-Tenant-Id", "/tenant/id"), new BodyHeader("X-Sku", "$.items[1].sku"))
+        );
+        when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST_CONTENT);
+        when(executionContext.request()).thenReturn(request);
+        List<String> chunks = new ArrayList<>();
+
+        // Run
+        ReadWriteStream<Buffer> stream = transformHeadersPolicy().onRequestContent(executionContext);
+        stream.bodyHandler(chunk -> {
+            assertThat(requestHttpHeaders.getFirst("X-Tenant-Id")).isEqualTo("acme");
+            assertThat(requestHttpHeaders.getFirst("X-Sku")).isEqualTo("B-2");
+            chunks.add(chunk.toString());
+        });
+        stream.write(Buffer.buffer("{\"tenant\":{\"id\":\"ac"));
+        stream.write(Buffer.buffer("me\"},\"items\":[{\"sku\":\"A-1\"},{\"sku\":\"B-2\"}"));
+
+        // Verify
+        assertThat(chunks).containsExactly("{\"tenant\":{\"id\":\"ac", "me\"},\"items\":[{\"sku\":\"A-1\"},{\"sku\":\"B-2\"}");
+
+        stream.write(Buffer.buffer(",{\"sku\":\"C-3\"}]}")).end();
+        assertThat(chunks).hasSize(3);
+    }
+
+    @Test
+    void test_OnRequestContent_readHeadersFromInvalidBody() {
+        // Prepare
+        when(transformHeadersPolicyConfiguration.getBodyHeaders()).thenReturn(List.of(new BodyHeader("X-Tenant-Id", "/tenant/id")));
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(
+            Collections.singletonList(new HttpHeader("X-Gravitee-Test", "Value"))
+        );
+        when(transformHeadersPolicyConfiguration.getScope()).thenReturn(PolicyScope.REQUEST_CONTENT);
+        when(executionContext.request()).thenReturn(request);
+        List<String> chunks = new ArrayList<>();
+
+        // Run
+        ReadWriteStream<Buffer> stream = transformHeadersPolicy().onRequestContent(executionContext);
+        stream.bodyHandler(chunk -> chunks.add(chunk.toString()));
+        stream.write(Buffer.buffer("<tenant><id>acme</id></tenant>"));
+
+        // Verify
+        assertThat(chunks).containsExactly("<tenant><id>acme</id></tenant>");
+        assertThat(requestHttpHeaders.getFirst("X-Gravitee-Test")).isEqualTo("Value");
+        assertThat(requestHttpHeaders.contains("X-Tenant-Id")).isFalse();
+    }
+
+    @Test
+    void test_OnRequest_offloadedValueTimesOutWithFallback() throws Exception {
+        // Prepare
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(List.of(offloaded("{#slow}", "fallback")));
+        when(templateEngine.eval("{#slow}", String.class)).thenReturn(Maybe.never());
+        when(executionContext.request()).thenReturn(request);
+        final Vertx vertx = Vertx.vertx();
+        try {
+            when(executionContext.getComponent(Vertx.class)).thenReturn(vertx);
+
+            // Run
+            final boolean resumedOnRequestContext = onRequestOnEventLoop(transformHeadersPolicy(), vertx);
+
+            // Verify
+            assertThat(resumedOnRequestContext).isTrue();
+            assertThat(requestHttpHeaders.getFirst("X-Slow")).isEqualTo("fallback");
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test
+    void test_OnRequest_offloadedValueTimesOutWithoutFallback() throws Exception {
+        // Prepare
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(List.of(offloaded("{#slow}", null)));
+        when(templateEngine.eval("{#slow}", String.class)).thenReturn(Maybe.never());
+        when(executionContext.request()).thenReturn(request);
+        final Vertx vertx = Vertx.vertx();
+        try {
+            when(executionContext.getComponent(Vertx.class)).thenReturn(vertx);
+
+            // Run
+            final boolean resumedOnRequestContext = onRequestOnEventLoop(transformHeadersPolicy(), vertx);
+
+            // Verify
+            assertThat(resumedOnRequestContext).isTrue();
+            assertThat(requestHttpHeaders.contains("X-Slow")).isFalse();
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test
+    void test_OnRequest_offloadedValueNotCachedAfterTimeout() throws Exception {
+        // Prepare
+        final String expression = "{#dictionaries['slow']['value']}";
+        final HttpHeader header = offloaded(expression, "fallback");
+        header.setCacheTtl(60);
+        final MaybeSubject<String> late = MaybeSubject.create();
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(List.of(header));
+        when(transformHeadersPolicyConfiguration.getCacheMaxSize()).thenReturn(10);
+        when(templateEngine.eval(expression, String.class)).thenReturn(late, Maybe.just("in time"));
+        when(executionContext.request()).thenReturn(request);
+        final Vertx vertx = Vertx.vertx();
+        try {
+            when(executionContext.getComponent(Vertx.class)).thenReturn(vertx);
+            final TransformHeadersPolicyV3 policy = transformHeadersPolicy();
+
+            // Run
+            onRequestOnEventLoop(policy, vertx);
+            assertThat(requestHttpHeaders.getFirst("X-Slow")).isEqualTo("fallback");
+            late.onSuccess("late");
+            onRequestOnEventLoop(policy, vertx);
+            assertThat(requestHttpHeaders.getFirst("X-Slow")).isEqualTo("in time");
+            onRequestOnEventLoop(policy, vertx);
+
+            // Verify
+            assertThat(requestHttpHeaders.getFirst("X-Slow")).isEqualTo("in time");
+            verify(templateEngine, times(2)).eval(expression, String.class);
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test
+    void test_OnRequest_offloadedValueSkippedWhenConditionDoesNotHold() throws Exception {
+        // Prepare
+        final HttpHeader header = offloaded("{#slow}", "fallback");
+        header.setCondition("{#request.headers['X-Missing'] != null}");
+        when(transformHeadersPolicyConfiguration.getAddHeaders()).thenReturn(List.of(header));
+        when(executionContext.request()).thenReturn(request);
+        final Vertx vertx = Vertx.vertx();
+        try {
+            when(executionContext.getComponent(Vertx.class)).thenReturn(vertx);
+
+            // Run
+            onRequestOnEventLoop(transformHeadersPolicy(), vertx);
+
+            // Verify
+            assertThat(requestHttpHeaders.contains("X-Slow")).isFalse();
+            verify(templateEngine, never()).eval("{#slow}", String.class);
+        } finally {
+            vertx.close();
+        }
+    }
+
+    /**
+     * Runs the request phase on an event loop and waits for the chain to go on.
+     *
+     * @return whether the chain went on from the context the request was handled on.
+     */
+    private boolean onRequestOnEventLoop(final TransformHeadersPolicyV3 policy, final Vertx vertx) throws Exception {
+        final AtomicReference<Context> requestContext = new AtomicReference<>();
+        final CompletableFuture<Context> resumedContext = new CompletableFuture<>();
+        doAnswer(invocation -> resumedContext.complete(Vertx.currentContext())).when(policyChain).doNext(request, response);
+        vertx.runOnContext(ignored -> {
+            requestContext.set(Vertx.currentContext());
+            policy.onRequest(request, response, executionContext, policyChain);
+        });
+        return resumedContext.get(5, TimeUnit.SECONDS) == requestContext.get();
+    }
+
+    private static HttpHeader offloaded(final String value, final String fallback) {
+        final HttpHeader header = new HttpHeader("X-Slow", value);
+        header.setOffloaded(true);
+        header.setTimeout(50);
+        header.setFallbackValue(fallback);
+        return header;
+    }
+
+    private TransformHeadersPolicyV3 transformHeadersPolicy() {
+        return new TransformHeadersPolicyV3(transformHeadersPolicyConfiguration);
+    }
 }